@@ -0,0 +1,103 @@
+package datanetwork.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * <p>A minimal benchmark in the style of JMH: warmup iterations, then timed measurement iterations of a single operation.</p>
+ * <p>Each benchmark reports its throughput in operations per second and the number of bytes allocated per operation by the measuring thread.
+ * Results that must not be optimized away are written to {@link #sink}.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public abstract class Benchmark {
+	public static volatile Object sink;
+	public static volatile long longSink;
+
+	protected String name;
+
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** Called once before the warmup. */
+	protected void setUp() throws Exception {
+	}
+
+	/** Called once after the measurement. */
+	protected void tearDown() throws Exception {
+	}
+
+	/** The operation being measured. */
+	protected abstract void operation() throws Exception;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param warmups the number of warmup iterations.
+	 * @param iterations the number of measured iterations.
+	 * @param iterationMillis the duration of each iteration.
+	 * @return the measured throughput and allocation rate.
+	 */
+	public Result run(int warmups, int iterations, long iterationMillis) throws Exception {
+		setUp();
+		try {
+			for(int i = 0;i < warmups;i++) iterate(iterationMillis);
+			long ops = 0, nanos = 0, bytes = 0;
+			long allocatedBefore = allocatedBytes();
+			for(int i = 0;i < iterations;i++) {
+				long start = System.nanoTime();
+				ops += iterate(iterationMillis);
+				nanos += System.nanoTime() - start;
+			}
+			long allocatedAfter = allocatedBytes();
+			bytes = (allocatedBefore < 0) ? -1 : allocatedAfter - allocatedBefore;
+			return new Result(name, ops, nanos, bytes);
+		} finally {
+			tearDown();
+		}
+	}
+
+	private long iterate(long iterationMillis) throws Exception {
+		long deadline = System.nanoTime() + iterationMillis * 1000000L;
+		long ops = 0;
+		while(System.nanoTime() < deadline) {
+			for(int i = 0;i < 256;i++) operation();
+			ops += 256;
+		}
+		return ops;
+	}
+
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+			if(sun.isThreadAllocatedMemorySupported()) return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * The throughput and allocation rate of one benchmark.
+	 */
+	public static class Result {
+		public final String name;
+		public final double opsPerSecond;
+		public final double bytesPerOp;
+
+		Result(String name, long ops, long nanos, long bytes) {
+			this.name = name;
+			this.opsPerSecond = ops * 1e9 / nanos;
+			this.bytesPerOp = (bytes < 0) ? Double.NaN : (double) bytes / ops;
+		}
+
+		public String toString() {
+			return String.format("%-48s %14.0f ops/s %10.1f B/op", name, opsPerSecond, bytesPerOp);
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package datanetwork.benchmark;
+
+import processing.core.PApplet;
+
+/**
+ * <p>A sketch with the float flavour of dnEvent, so routed messages pay for the callback as they would in a real sketch.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public class BenchmarkSketch extends PApplet {
+
+	public void dnEvent(String address, float[] data) {
+		Benchmark.sink = data;
+	}
+}
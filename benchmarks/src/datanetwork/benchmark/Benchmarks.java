@@ -0,0 +1,59 @@
+package datanetwork.benchmark;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>Runs the codec, dispatch and send benchmarks and prints their throughput and allocation per operation.</p>
+ * <p>Usage: <code>java datanetwork.benchmark.Benchmarks [-o file] [filter]</code>.  Only benchmarks whose name contains the filter are run;
+ * with <code>-o</code> the results are also written to the file, in the format of the RESULTS file shipped with the library.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public class Benchmarks {
+
+	static final int WARMUPS = 3;
+	static final int ITERATIONS = 5;
+	static final long ITERATION_MILLIS = 1000;
+
+	public static void main(String[] args) throws Exception {
+		String output = null;
+		String filter = "";
+		for(int i = 0;i < args.length;i++) {
+			if(args[i].equals("-o") && i + 1 < args.length) output = args[++i];
+			else filter = args[i];
+		}
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		add(benchmarks, CodecBenchmarks.create(), filter);
+		add(benchmarks, DispatchBenchmarks.create(), filter);
+		add(benchmarks, SendBenchmarks.create(), filter);
+
+		List<String> lines = new ArrayList<String>();
+		lines.add("# " + new Date() + ", " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") + ", " + System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+		lines.add("# " + WARMUPS + " warmup and " + ITERATIONS + " measured iterations of " + ITERATION_MILLIS + " ms");
+		for(String line : lines) System.out.println(line);
+		for(Benchmark benchmark : benchmarks) {
+			String line = benchmark.run(WARMUPS, ITERATIONS, ITERATION_MILLIS).toString();
+			System.out.println(line);
+			lines.add(line);
+		}
+
+		if(output != null) {
+			PrintWriter writer = new PrintWriter(new FileWriter(output));
+			for(String line : lines) writer.println(line);
+			writer.close();
+		}
+		System.exit(0);
+	}
+
+	private static void add(List<Benchmark> benchmarks, Benchmark[] candidates, String filter) {
+		for(int i = 0;i < candidates.length;i++) {
+			if(candidates[i].getName().indexOf(filter) != -1) benchmarks.add(candidates[i]);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package datanetwork.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import datanetwork.javaosc.*;
+import datanetwork.javaosc.utility.*;
+
+/**
+ * <p>Benchmarks of the OSC encoders and decoders on the shapes of messages DataNetwork actually exchanges:
+ * "/data/node" with a node id and 8 float slots, the same message in a bundle of 4, and the "/set/data" message a setter sends.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public class CodecBenchmarks {
+
+	static final int SLOTS = 8;
+
+	static OSCMessage dataNode(int nodeId) {
+		OSCMessage message = new OSCMessage("/data/node", null);
+		message.addInt(nodeId);
+		for(int i = 0;i < SLOTS;i++) message.addFloat(i * 0.125f);
+		return message;
+	}
+
+	static byte[] dataNodeBytes() {
+		return dataNode(1).getByteArray();
+	}
+
+	static byte[] dataBundleBytes() {
+		OSCBundle bundle = new OSCBundle(new Date());
+		for(int i = 0;i < 4;i++) bundle.addPacket(dataNode(i));
+		return bundle.getByteArray();
+	}
+
+	public static Benchmark[] create() {
+		final byte[] message = dataNodeBytes();
+		final byte[] bundle = dataBundleBytes();
+		final float[] floats = new float[SLOTS];
+
+		return new Benchmark[] {
+			new Benchmark("decode /data/node, converter") {
+				OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter();
+				protected void operation() {
+					sink = converter.convert(message, message.length);
+				}
+			},
+			new Benchmark("decode bundle of 4 /data/node, converter") {
+				OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter();
+				protected void operation() {
+					sink = converter.convert(bundle, bundle.length);
+				}
+			},
+			new Benchmark("decode /data/node, view") {
+				OSCByteBufferDecoder decoder = new OSCByteBufferDecoder();
+				ByteBuffer buffer = ByteBuffer.wrap(message);
+				protected void operation() {
+					OSCMessageView view = decoder.decodeMessage(buffer, 0, message.length);
+					view.copyFloats(floats, 1);
+					sink = floats;
+				}
+			},
+			new Benchmark("decode bundle of 4 /data/node, cursor") {
+				OSCByteBufferDecoder decoder = new OSCByteBufferDecoder();
+				ByteBuffer buffer = ByteBuffer.wrap(bundle);
+				protected void operation() {
+					OSCBundleCursor cursor = decoder.decodeBundle(buffer, 0, bundle.length);
+					while(cursor.next()) {
+						OSCMessageView view = decoder.decodeMessage(buffer, cursor.getElementOffset(), cursor.getElementLength());
+						view.copyFloats(floats, 1);
+					}
+					sink = floats;
+				}
+			},
+			new Benchmark("encode /data/node, converter") {
+				protected void operation() {
+					OSCJavaToByteArrayConverter stream = new OSCJavaToByteArrayConverter();
+					stream.write("/data/node");
+					stream.write(',');
+					stream.write('i');
+					for(int i = 0;i < SLOTS;i++) stream.write('f');
+					stream.appendNullCharToAlignStream();
+					stream.write(1);
+					for(int i = 0;i < SLOTS;i++) stream.write(i * 0.125f);
+					sink = stream.toByteArray();
+				}
+			},
+			new Benchmark("encode /data/node, new OSCMessage") {
+				protected void operation() {
+					sink = dataNode(1).getByteArray();
+				}
+			},
+			new Benchmark("encode /data/node, buffer encoder") {
+				OSCByteBufferEncoder encoder = new OSCByteBufferEncoder(2048);
+				OSCMessage data = dataNode(1);
+				protected void operation() {
+					data.clearArguments();
+					data.addInt(1);
+					for(int i = 0;i < SLOTS;i++) data.addFloat(i * 0.125f);
+					sink = encoder.encode(data);
+				}
+			},
+			new Benchmark("encode /set/data, template") {
+				OSCMessageTemplate template = new OSCMessageTemplate("/set/data", new Object[] { 57000, "bench", 1 }, 'f', SLOTS);
+				protected void operation() {
+					floats[0] += 1;
+					template.setFloats(floats);
+					sink = template.getByteBuffer();
+				}
+			}
+		};
+	}
+}
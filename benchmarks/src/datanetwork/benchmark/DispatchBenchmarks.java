@@ -0,0 +1,89 @@
+package datanetwork.benchmark;
+
+import java.nio.ByteBuffer;
+
+import datanetwork.DNConnection;
+import datanetwork.javaosc.*;
+import processing.core.PApplet;
+
+/**
+ * <p>Benchmarks of the receive side: {@link OSCPortIn} dispatching a "/data/node" packet to its listeners,
+ * and {@link DNConnection#oscEvent(OSCMessage)} routing decoded messages to the sketch.</p>
+ * <p>Packets are handed straight to the port's dispatch, so the numbers exclude the socket.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public class DispatchBenchmarks {
+
+	/**
+	 * A port whose dispatch can be driven without a socket.
+	 */
+	static class DispatchPort extends OSCPortIn {
+		DispatchPort(DNConnection dn) {
+			super(dn, 0);
+		}
+
+		void dispatch(ByteBuffer bytes, int length) {
+			dispatchBytes(bytes, 0, length);
+		}
+	}
+
+	static Benchmark dispatch(final int listenerCount) {
+		return dispatch("OSCPortIn dispatch, " + listenerCount + " listeners", new BenchmarkSketch(), listenerCount);
+	}
+	
+	static Benchmark dispatch(String name, final PApplet sketch, final int listenerCount) {
+		return new Benchmark(name) {
+			DNConnection dn;
+			DispatchPort port;
+			byte[] packet = CodecBenchmarks.dataNodeBytes();
+			ByteBuffer buffer = ByteBuffer.wrap(packet);
+
+			protected void setUp() {
+				dn = new DNConnection(sketch, "127.0.0.1", 0, 0, "bench");
+				port = new DispatchPort(dn);
+				port.addViewListener(dn);
+				for(int i = 0;i < listenerCount;i++) {
+					port.addListener(new OSCListener() {
+						public void acceptMessage(OSCMessage message) {
+							sink = message;
+						}
+					});
+				}
+			}
+
+			protected void operation() {
+				port.dispatch(buffer, packet.length);
+			}
+
+			protected void tearDown() {
+				port.close();
+			}
+		};
+	}
+
+	static Benchmark route() {
+		return new Benchmark("DNConnection.oscEvent, data/slot/ping mix") {
+			DNConnection dn;
+			OSCMessage[] messages;
+			int next;
+
+			protected void setUp() {
+				dn = new DNConnection(new BenchmarkSketch(), "127.0.0.1", 0, 0, "bench");
+				OSCMessage slot = new OSCMessage("/data/slot", new Object[] { 1, 0, 0.5f });
+				OSCMessage ping = new OSCMessage("/ping", new Object[] { 0, "bench" });
+				messages = new OSCMessage[] { CodecBenchmarks.dataNode(1), slot, CodecBenchmarks.dataNode(2), ping };
+			}
+
+			protected void operation() {
+				dn.oscEvent(messages[next]);
+				next = (next + 1) & 3;
+			}
+		};
+	}
+
+	public static Benchmark[] create() {
+		return new Benchmark[] { dispatch(0), dispatch(1), dispatch(4), dispatch(16), dispatch("OSCPortIn dispatch, no dnEvent", new PApplet(), 0), route() };
+	}
+}
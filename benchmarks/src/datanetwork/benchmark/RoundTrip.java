@@ -0,0 +1,197 @@
+package datanetwork.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+
+import datanetwork.javaosc.*;
+import datanetwork.javaosc.utility.*;
+
+/**
+ * <p>Checks that every OSC type survives a round trip through both encoders and both decoders, before the codec is benchmarked or released.</p>
+ * <p>Each argument is encoded with {@link OSCMessage#getByteArray()} and with the {@link OSCByteBufferEncoder}, then decoded with the
+ * {@link OSCByteArrayToJavaConverter} and with an {@link OSCMessageView}, and its type tag and bits compared with the original.
+ * Bundle time tags are checked the same way, along with the conversion between dates and NTP time tags.</p>
+ * <p>Usage: <code>java datanetwork.benchmark.RoundTrip</code>.  Prints every mismatch and exits with status 1 if there was any.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public class RoundTrip {
+
+	static int checks, failures;
+
+	public static void main(String[] args) {
+		int[] ints = { 0, 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE };
+		long[] longs = { 0L, 1L, -1L, -123456789012345L, 1L << 32, Long.MIN_VALUE, Long.MAX_VALUE };
+		float[] floats = { 0f, -0f, 1.5f, -1e-30f, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.MIN_VALUE };
+		double[] doubles = { 0.0, -0.0, Math.PI, -1e300, Double.NaN, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, (double) (1L << 53) + 1 };
+		long[] timeTags = { 0L, OSCBundle.IMMEDIATE, 0x00000000FFFFFFFFL, 0x7FFFFFFF00000000L, 0x8000000000000000L, 0xFFFFFFFFFFFFFFFFL };
+		String[] strings = { "", "a", "abc", "abcd", "abcde" };
+
+		OSCMessage message = new OSCMessage("/round/trip", null);
+		for(int i = 0;i < ints.length;i++) message.addInt(ints[i]);
+		for(int i = 0;i < longs.length;i++) message.addLong(longs[i]);
+		for(int i = 0;i < floats.length;i++) message.addFloat(floats[i]);
+		for(int i = 0;i < doubles.length;i++) message.addDouble(doubles[i]);
+		for(int i = 0;i < timeTags.length;i++) message.addTimeTag(timeTags[i]);
+		for(int i = 0;i < strings.length;i++) message.addString(strings[i]);
+		for(int size = 0;size <= 5;size++) message.addBlob(blob(size));
+		message.addNil();
+		message.addInfinitum();
+		message.addArgument(Boolean.TRUE);
+		message.addArgument(Boolean.FALSE);
+		message.addInt(42);		//an argument after the ones without data, to check the offsets
+
+		OSCByteBufferEncoder encoder = new OSCByteBufferEncoder(64);
+		byte[][] encodings = { copy(message).getByteArray(), bytes(encoder.encode(copy(message))) };
+		String[] encoders = { "getByteArray", "buffer encoder" };
+		for(int e = 0;e < encodings.length;e++) {
+			byte[] bytes = encodings[e];
+			check(encoders[e] + " encodings match", Arrays.equals(bytes, encodings[0]));
+			OSCMessage converted = (OSCMessage) new OSCByteArrayToJavaConverter().convert(bytes, bytes.length);
+			compare(encoders[e] + ", converter", message, converted);
+			OSCMessageView view = new OSCByteBufferDecoder().decodeMessage(ByteBuffer.wrap(bytes), 0, bytes.length);
+			check(encoders[e] + ", view decodes", view != null);
+			if(view != null) {
+				compare(encoders[e] + ", view", message, view);
+				compare(encoders[e] + ", view.toMessage", message, view.toMessage());
+			}
+		}
+
+		Date[] dates = { new Date(0), new Date(999), new Date(-1000), new Date(1234567890123L), new Date(2085978495999L), new Date(4102444800000L) };
+		for(int i = 0;i < dates.length;i++) {
+			long timeTag = OSCBundle.dateToTimeTag(dates[i]);
+			Date expected = (dates[i].getTime() < 0) ? new Date(0) : dates[i];	//times before 1970 are clamped
+			check("date " + dates[i].getTime() + " to time tag and back", OSCBundle.timeTagToDate(timeTag).equals(expected));
+
+			OSCBundle bundle = new OSCBundle(dates[i]);
+			bundle.addPacket(new OSCMessage("/data/node", new Object[] { i, 0.5f }));
+			byte[][] bundles = { bundle.getByteArray(), bytes(encoder.encode(bundle)) };
+			for(int e = 0;e < bundles.length;e++) {
+				byte[] bytes = bundles[e];
+				OSCBundle converted = (OSCBundle) new OSCByteArrayToJavaConverter().convert(bytes, bytes.length);
+				check(encoders[e] + ", converter, bundle dated " + dates[i].getTime(), converted.getTimestamp().equals(expected) && converted.getPackets().length == 1);
+				OSCBundleCursor cursor = new OSCByteBufferDecoder().decodeBundle(ByteBuffer.wrap(bytes), 0, bytes.length);
+				check(encoders[e] + ", cursor, bundle dated " + dates[i].getTime(), cursor != null && cursor.getTimeTag() == timeTag && cursor.next() && !cursor.next());
+			}
+		}
+		check("immediate bundle", OSCBundle.dateToTimeTag(null) == OSCBundle.IMMEDIATE);
+
+		System.out.println(checks + " checks, " + failures + " failures");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	static void compare(String name, OSCMessage expected, OSCMessage actual) {
+		check(name + ", address", expected.getAddress().equals(actual.getAddress()));
+		check(name + ", argument count", expected.getArgumentCount() == actual.getArgumentCount());
+		for(int i = 0;i < Math.min(expected.getArgumentCount(), actual.getArgumentCount());i++) {
+			char tag = expected.typeTagAt(i);
+			String argument = name + ", argument " + i + " '" + tag + "'";
+			if(!check(argument + " tag", actual.typeTagAt(i) == tag)) continue;
+			switch(tag) {
+				case 'i' :
+					check(argument, actual.getInt(i) == expected.getInt(i));
+					break;
+				case 'h' :
+				case 't' :
+					check(argument, actual.getLong(i) == expected.getLong(i));
+					break;
+				case 'f' :
+					check(argument, Float.floatToRawIntBits(actual.getFloat(i)) == Float.floatToRawIntBits(expected.getFloat(i)));
+					break;
+				case 'd' :
+					check(argument, Double.doubleToRawLongBits(actual.getDouble(i)) == Double.doubleToRawLongBits(expected.getDouble(i)));
+					break;
+				case 'b' :
+					check(argument, Arrays.equals((byte[]) actual.getArgument(i), (byte[]) expected.getArgument(i)));
+					break;
+				default :
+					Object value = expected.getArgument(i);
+					check(argument, (value == null) ? actual.getArgument(i) == null : value.equals(actual.getArgument(i)));
+			}
+		}
+	}
+
+	static void compare(String name, OSCMessage expected, OSCMessageView actual) {
+		check(name + ", address", expected.getAddress().equals(actual.getAddress()));
+		check(name + ", argument count", expected.getArgumentCount() == actual.getArgumentCount());
+		for(int i = 0;i < Math.min(expected.getArgumentCount(), actual.getArgumentCount());i++) {
+			char tag = expected.typeTagAt(i);
+			String argument = name + ", argument " + i + " '" + tag + "'";
+			if(!check(argument + " tag", actual.typeTagAt(i) == tag)) continue;
+			switch(tag) {
+				case 'i' :
+					check(argument, actual.getInt(i) == expected.getInt(i));
+					break;
+				case 'h' :
+				case 't' :
+					check(argument, actual.getLong(i) == expected.getLong(i));
+					break;
+				case 'f' :
+					check(argument, Float.floatToRawIntBits(actual.getFloat(i)) == Float.floatToRawIntBits(expected.getFloat(i)));
+					break;
+				case 'd' :
+					check(argument, Double.doubleToRawLongBits(actual.getDouble(i)) == Double.doubleToRawLongBits(expected.getDouble(i)));
+					break;
+				case 's' :
+					check(argument, actual.getString(i).equals(expected.getArgument(i)) && actual.stringEquals(i, (String) expected.getArgument(i)));
+					break;
+				case 'b' :
+					check(argument, Arrays.equals(actual.getBlob(i), (byte[]) expected.getArgument(i)));
+					break;
+				default :
+					Object value = expected.getArgument(i);
+					check(argument, (value == null) ? actual.getArgument(i) == null : value.equals(actual.getArgument(i)));
+			}
+		}
+	}
+
+	static boolean check(String name, boolean passed) {
+		checks++;
+		if(!passed) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+		return passed;
+	}
+
+	/** A fresh copy of the message, so that each encoder starts without a cached encoding. */
+	static OSCMessage copy(OSCMessage message) {
+		OSCMessage copy = new OSCMessage(message.getAddress(), null);
+		for(int i = 0;i < message.getArgumentCount();i++) {
+			switch(message.typeTagAt(i)) {
+				case 'h' :
+					copy.addLong(message.getLong(i));
+					break;
+				case 'd' :
+					copy.addDouble(message.getDouble(i));
+					break;
+				case 't' :
+					copy.addTimeTag(message.getLong(i));
+					break;
+				case 'N' :
+					copy.addNil();
+					break;
+				case 'I' :
+					copy.addInfinitum();
+					break;
+				default :
+					copy.addArgument(message.getArgument(i));
+			}
+		}
+		return copy;
+	}
+
+	static byte[] blob(int size) {
+		byte[] blob = new byte[size];
+		for(int i = 0;i < size;i++) blob[i] = (byte) (0xF0 + i);
+		return blob;
+	}
+
+	static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,66 @@
+package datanetwork.benchmark;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+
+import datanetwork.DNConnection;
+import datanetwork.DNNode;
+import datanetwork.javaosc.*;
+
+/**
+ * <p>Benchmark of {@link DNConnection#setData(DNNode, float[])} end to end: the message is encoded and sent over loopback UDP
+ * to a socket standing in for the server, which drains it on its own thread.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public class SendBenchmarks {
+
+	static Benchmark setData() {
+		return new Benchmark("DNConnection.setData, 8 floats over loopback") {
+			DatagramSocket server;
+			Thread drain;
+			DNConnection dn;
+			DNNode node;
+			float[] data = new float[CodecBenchmarks.SLOTS];
+
+			protected void setUp() throws Exception {
+				server = new DatagramSocket(0);
+				drain = new Thread() {
+					public void run() {
+						DatagramPacket packet = new DatagramPacket(new byte[1536], 1536);
+						try {
+							while(true) {
+								server.receive(packet);
+								packet.setLength(1536);
+							}
+						} catch(Exception e) {
+							//closed
+						}
+					}
+				};
+				drain.setDaemon(true);
+				drain.start();
+
+				dn = new DNConnection(new BenchmarkSketch(), "127.0.0.1", server.getLocalPort(), 0, "bench");
+				//the server would send this once the client is registered
+				dn.oscEvent(new OSCMessage("/registered", null));
+				node = new DNNode(1, data.length, 0, "bench");
+				dn.addExpected(node);
+			}
+
+			protected void operation() {
+				data[0] += 1;
+				dn.setData(node, data);
+			}
+
+			protected void tearDown() {
+				server.close();
+			}
+		};
+	}
+
+	public static Benchmark[] create() {
+		return new Benchmark[] { setData() };
+	}
+}
@@ -5,6 +5,10 @@ import java.net.*;
 import java.io.*;	
 import java.util.Date;
 import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import processing.core.PApplet;
 
@@ -26,11 +30,37 @@ import processing.core.PApplet;
  * @author Vincent de Belleval (v@debelleval.com)
  */
 
-public class DNConnection {
+public class DNConnection implements OSCViewListener {
 	OSCPortIn in;
 	OSCPortOut out;
+	OSCStreamTransport stream;
+	OSCTransport outTransport;
+	boolean bindsIncoming;		//true if the incoming port is bound by the connection, false for a transport given to it
+	OSCSelector incomingSelector;	//the selector reading the incoming port, null for a thread of its own
+	OSCMulticastTransport multicast;
 	PApplet parent;
-	Method[] dnEvent;
+	MethodHandle[] dnEvent = new MethodHandle[3];
+	CopyOnWriteArrayList<OSCListener> messageListeners = new CopyOnWriteArrayList<OSCListener>();
+	CopyOnWriteArrayList<NodeListener> nodeListeners = new CopyOnWriteArrayList<NodeListener>();
+	IntMap<float[]> nodeData = new IntMap<float[]>();
+	IntMap<OSCMessageTemplate> dataTemplates = new IntMap<OSCMessageTemplate>();	//compiled "/set/data" messages, by node id
+	volatile DNFrameBuffer frame;
+	boolean preRegistered;
+	
+	/** Delivers the nodes updated since the last frame, on the animation thread. */
+	NodeListener frameListener = new NodeListener() {
+		public void onNodeData(int nodeId, float[] data) {
+			if(router.route(nodeId, data)) return;
+			for(NodeListener listener : nodeListeners) {
+				listener.onNodeData(nodeId, data);
+			}
+			if(messageListeners.isEmpty() && dnEvent[0] == null && dnEvent[1] == null && dnEvent[2] == null) return;
+			Object[] args = new Object[data.length + 1];
+			args[0] = nodeId;
+			for(int i = 0;i < data.length;i++) args[i + 1] = data[i];
+			dnEventInvoke(new OSCMessage(ADDRESSES[DATA_NODE], args));
+		}
+	};
 	PingResponder pingResponder;
 	int incoming_port, outgoing_port;
 	Vector<DNNode> client_nodes;
@@ -43,9 +73,44 @@ public class DNConnection {
 	String address;
 	boolean isRegistered;
 	boolean subscribe_all;
+	int batchSize, batchDelay;
+	int sendQueueCapacity;
+	int maxPacketSize = MAX_PACKET_SIZE;
+	int fragmentSize;
+	boolean postRegistered;
+	
+	/** Sends the data of each node to its own dispatch worker, and everything else to the first one. */
+	OSCPartitioner nodePartitioner = new OSCPartitioner() {
+		public int partition(OSCMessageView view) {
+			int id = view.getAddressId();
+			if((id == DATA_NODE || id == DATA_SLOT) && view.getArgumentCount() > 0 && view.typeTagAt(0) == 'i') return view.getInt(0);
+			return 0;
+		}
+	};
+	DNDataDecoder dataDecoder = new DNDataDecoder();
+	DNNodeRouter router = new DNNodeRouter();
+	
+	/** The default number of incoming messages queued for dnEvent. */
+	public static final int RING_CAPACITY = 256;
+	/** The largest datagram the incoming port receives by default, in bytes. */
+	public static final int MAX_PACKET_SIZE = 1536;
+	
+	/** Ids of the server's addresses in the incoming port's symbol table, in the order of {@link #ADDRESSES}. */
+	static final int ANNOUNCE = 0, QUIT = 1, ERROR = 2, WARN = 3, PING = 4, REGISTERED = 5, UNREGISTERED = 6,
+		SUBSCRIBED_NODE = 7, UNSUBSCRIBED_NODE = 8, SUBSCRIBED_SLOT = 9, UNSUBSCRIBED_SLOT = 10, REMOVED_NODE = 11,
+		INFO_NODE = 12, INFO_EXPECTED = 13, INFO_SLOT = 14, INFO_CLIENT = 15, INFO_SETTER = 16, DATA_NODE = 17, DATA_SLOT = 18,
+		INFO_MINIBEE = 19, MAPPED_MINIBEE_OUTPUT = 20, MAPPED_MINIBEE_CUSTOM = 21, UNMAPPED_MINIBEE_CUSTOM = 22, UNMAPPED_MINIBEE_OUTPUT = 23;
+	
+	/** Every address the server sends, defined in the incoming port's symbol table so they are routed by id. */
+	static final String[] ADDRESSES = {
+		"/datanetwork/announce", "/datanetwork/quit", "/error", "/warn", "/ping", "/registered", "/unregistered",
+		"/subscribed/node", "/unsubscribed/node", "/subscribed/slot", "/unsubscribed/slot", "/removed/node",
+		"/info/node", "/info/expected", "/info/slot", "/info/client", "/info/setter", "/data/node", "/data/slot",
+		"/info/minibee", "/mapped/minibee/output", "/mapped/minibee/custom", "/unmapped/minibee/custom", "/unmapped/minibee/output"
+	};
 	
 	/** 
-	 * Constructs a new DNConnection attatched to the specified PApplet.  This is the only available constructor available even if some of the arguments are optional in an attempt to enforce good practices.
+	 * Constructs a new DNConnection attatched to the specified PApplet.  All the arguments are required, even if some of them could be optional, in an attempt to enforce good practices.
 	 *
 	 * @see #getServerPort(String addy)
 	 * @param parent the Processing PAapplet to which the DNConnection is attached.
@@ -55,15 +120,101 @@ public class DNConnection {
 	 * @param name the name the client will have on the network. 
 	 */
 	public DNConnection(PApplet parent, String address, int outgoing_port, int incoming_port, String name) {
+		this(parent, address, outgoing_port, incoming_port, name, null);
+	}
+	
+	/** 
+	 * Constructs a new DNConnection whose incoming port is read by an {@link OSCSelector} instead of a thread of its own.
+	 * Many connections in one sketch or JVM can share the same selector, and so a single receiving thread.
+	 *
+	 * @see #DNConnection(PApplet parent, String address, int outgoing_port, int incoming_port, String name)
+	 * @param parent the Processing PAapplet to which the DNConnection is attached.
+	 * @param address the IP address of the server to attempt to connect to.
+	 * @param outgoing_port the port the sever at the specified address is listening to.
+	 * @param incoming_port the port DNConnection will listen to for incomming messages from the server.
+	 * @param name the name the client will have on the network. 
+	 * @param selector the selector reading the incoming port, {@link OSCSelector#getDefault()} to share the library's, or null for a thread of its own.
+	 */
+	public DNConnection(PApplet parent, String address, int outgoing_port, int incoming_port, String name, OSCSelector selector) {
 		this.parent = parent;
 		this.address = address;
 		this.incoming_port = incoming_port;
 		this.outgoing_port = outgoing_port;
 		this.name = name;
 		
-		in = new OSCPortIn(this ,incoming_port);
-		out = new OSCPortOut(address, outgoing_port);
-
+		if(selector != null) in = new OSCPortIn(this, incoming_port, selector);
+		else in = new OSCPortIn(this ,incoming_port);
+		bindsIncoming = true;
+		incomingSelector = selector;
+		setRingBuffer(RING_CAPACITY, OSCRingBuffer.Overflow.DROP_OLDEST);
+		init();
+	}
+	
+	/** 
+	 * Constructs a new DNConnection that talks to the server over a single TCP connection instead of two UDP ports,
+	 * so that messages are not limited by the size of a datagram and are neither lost nor reordered.
+	 * The server must accept OSC over TCP on <code>outgoing_port</code> with the same framing.
+	 * The connection's local port stands in for the incoming port when registering with the server.
+	 * Incoming messages are not queued, as TCP already holds the server back while dnEvent is busy.
+	 *
+	 * @see #DNConnection(PApplet parent, String address, int outgoing_port, int incoming_port, String name)
+	 * @param parent the Processing PAapplet to which the DNConnection is attached.
+	 * @param address the IP address of the server to attempt to connect to.
+	 * @param outgoing_port the TCP port the sever at the specified address is listening to.
+	 * @param name the name the client will have on the network. 
+	 * @param framing how messages are delimited on the connection, {@link OSCStreamTransport.Framing#SLIP} for OSC 1.1.
+	 */
+	public DNConnection(PApplet parent, String address, int outgoing_port, String name, OSCStreamTransport.Framing framing) {
+		this.parent = parent;
+		this.address = address;
+		this.outgoing_port = outgoing_port;
+		this.name = name;
+		
+		try {
+			stream = new OSCStreamTransport(address, outgoing_port, framing, null);
+		} catch (IOException e) {
+			System.err.println("\nSenseWorldDataNetwork error: could not connect to "+address+" on TCP port "+outgoing_port+".");
+			e.printStackTrace();
+			return;
+		}
+		this.incoming_port = stream.getLocalPort();
+		outTransport = stream;
+		in = new OSCPortIn(this, stream);
+		init();
+	}
+	
+	/** 
+	 * Constructs a new DNConnection over the given transports instead of UDP sockets, for instance {@link OSCLoopbackTransport}s
+	 * to talk to a server running in the same JVM, or to test a sketch without binding ports.
+	 *
+	 * @see #DNConnection(PApplet parent, String address, int outgoing_port, int incoming_port, String name)
+	 * @param parent the Processing PAapplet to which the DNConnection is attached.
+	 * @param address the IP address of the server.
+	 * @param outgoing_port the port the sever at the specified address is listening to.
+	 * @param name the name the client will have on the network. 
+	 * @param incoming the transport receiving the server's messages.  Its local port is the incoming port.
+	 * @param outgoing the transport sending to the server, or the incoming one to use a single transport.
+	 */
+	public DNConnection(PApplet parent, String address, int outgoing_port, String name, OSCTransport incoming, OSCTransport outgoing) {
+		this.parent = parent;
+		this.address = address;
+		this.incoming_port = incoming.getLocalPort();
+		this.outgoing_port = outgoing_port;
+		this.name = name;
+		
+		outTransport = outgoing;
+		in = new OSCPortIn(this, incoming);
+		setRingBuffer(RING_CAPACITY, OSCRingBuffer.Overflow.DROP_OLDEST);
+		init();
+	}
+	
+	private void init() {
+		for(int i = 0;i < ADDRESSES.length;i++) in.getSymbolTable().define(ADDRESSES[i], i);
+		in.setDroppable(DATA_NODE, true);
+		in.setDroppable(DATA_SLOT, true);
+		in.addViewListener(this);
+		openPortOut();
+		
 		client_nodes = new Vector<DNNode>();
 		subscribtion_list = new Vector<Integer>();
 		subscribtion = new Vector<Subscribtion>();
@@ -73,16 +224,9 @@ public class DNConnection {
 		isRegistered = false;
 		subscribe_all = false;
 		
-		dnEvent = new Method[3];
-		try {
-			dnEvent[0] = parent.getClass().getMethod("dnEvent", new Class[] { OSCMessage.class });
-		} catch (Exception e) {}
-		try {
-			dnEvent[1] = parent.getClass().getMethod("dnEvent", new Class[] { String.class, String[].class });
-		} catch (Exception e) {}
-		try {
-			dnEvent[2] = parent.getClass().getMethod("dnEvent", new Class[] { String.class, float[].class });
-		} catch (Exception e) {}
+		dnEvent[0] = bindEvent(new Class<?>[] { OSCMessage.class });
+		dnEvent[1] = bindEvent(new Class<?>[] { String.class, String[].class });
+		dnEvent[2] = bindEvent(new Class<?>[] { String.class, float[].class });
 		
 		System.out.println("\nSenseWorldDataNetwork client connenected to server at "+address+"\nListening to port "+in.getPort()+"\nSending on port "+out.getPort()+"\n");
 		
@@ -111,6 +255,58 @@ public class DNConnection {
 		return port;
 	}
 	
+	/** 
+	 * Not to be called directly.
+	 * Copies the data of bound nodes straight from the receive buffer, and only builds an OSCMessage for {@link #oscEvent(OSCMessage message)}
+	 * when the message changes the state of the connection, or dnEvent or a listener added with {@link #onMessage(OSCListener listener)} needs it.
+	 *
+	 * @see #bindNode(int nodeId, float[] data)
+	 * @param view the recieved message.
+	 * @return true if the message was data for a bound or subscribed node and has been handled.
+	 */
+	public boolean acceptView(OSCMessageView view) {
+		if(dataDecoder.decode(view)) return true;
+		DNFrameBuffer f = frame;
+		if(f != null && f.write(view)) return true;
+		if(router.route(view)) return true;
+		int id = view.getAddressId();
+		if(id < 0) id = in.getSymbolTable().lookup(view.getBuffer(), view.getAddressOffset(), view.getAddressLength());
+		if(id == DATA_NODE && !nodeListeners.isEmpty() && view.getArgumentCount() > 0 && view.typeTagAt(0) == 'i') {
+			int nodeId = view.getInt(0);
+			float[] data = nodeData.get(nodeId);
+			if(data == null || data.length != view.getArgumentCount() - 1) {
+				data = new float[view.getArgumentCount() - 1];
+				nodeData.put(nodeId, data);
+			}
+			view.copyFloats(data, 1);
+			for(NodeListener listener : nodeListeners) {
+				listener.onNodeData(nodeId, data);
+			}
+		}
+		//only build the message if something still needs it
+		if(!isEventOnly(id) || !messageListeners.isEmpty() || dnEvent[0] != null || dnEvent[1] != null || dnEvent[2] != null || verbo > 3) {
+			oscEvent(view.toMessage());
+		}
+		return false;
+	}
+	
+	/** 
+	 * Is the address one that {@link #oscEvent(OSCMessage message)} only prints and passes to dnEvent?
+	 */
+	private static boolean isEventOnly(int id) {
+		switch(id) {
+		case DATA_NODE:
+		case DATA_SLOT:
+		case INFO_EXPECTED:
+		case INFO_SLOT:
+		case INFO_CLIENT:
+		case INFO_SETTER:
+		case INFO_MINIBEE:
+			return true;
+		}
+		return false;
+	}
+	
 	/** 
 	 * Not to be called directly.
 	 * Recieves and routes all the server messages.
@@ -120,29 +316,39 @@ public class DNConnection {
 	public void oscEvent(OSCMessage message) {
 		String addr = message.getAddress();	
 		Object[] args = message.getArguments();
+		int id = message.getAddressId();
+		if(id < 0) id = in.getSymbolTable().lookup(addr);
 		
-		if(addr.equals("/datanetwork/announce")) {
+		switch(id) {
+		case ANNOUNCE:
 			printmsg(addr, args);
 			outgoing_port = getServerPort(address);	//get the current server port.  might have changed at reboot.
 			register();
-		} else if(addr.equals("/datanetwork/quit") && args[0].equals(address) && args[1].equals(outgoing_port)) {
-			isRegistered = false;
-			printmsg(addr, args);
-			pingResponder.removePingResponder();
-		} else if(addr.equals("/error")) {
+			break;
+		case QUIT:
+			if(args[0].equals(address) && args[1].equals(outgoing_port)) {
+				isRegistered = false;
+				printmsg(addr, args);
+				pingResponder.removePingResponder();
+			} else unexpected(addr, args);
+			break;
+		case ERROR:
 			if(verbo > 0) {
 				System.out.print("\nSenseWorldDataNetwork server error: ");
 				printmsg(addr, args);
 			}
-		} else if(addr.equals("/warn")) {
+			break;
+		case WARN:
 			if(verbo > 1) {
 				System.out.print("\nSenseWorldDataNetwork server warning: ");
 				printmsg(addr, args);
 			}
-		} else if(addr.equals("/ping")) {
+			break;
+		case PING:
 			if(verbo > 4) printmsg(addr, args);
-		} else if(addr.equals("/registered")) {
-			out = new OSCPortOut(address, outgoing_port);
+			break;
+		case REGISTERED:
+			out.setPort(outgoing_port);	//the server may have restarted on another port; the responders keep sending through the same port
 			isRegistered = true;
 			dnEventInvoke(message);
 			if(verbo > 3) printmsg(addr, args);
@@ -153,32 +359,37 @@ public class DNConnection {
 				for(int i = 0;i < client_nodes.size();i++) nds[i] = client_nodes.elementAt(i);
 				addExpected(nds);
 			}
-		} else if(addr.equals("/unregistered")) {
+			break;
+		case UNREGISTERED:
 			isRegistered = false;
 			dnEventInvoke(message);
 			if(verbo > 3) printmsg(addr, args);
-		} else if(addr.equals("/subscribed/node")) {	//SUBSCRIBE NODE
+			break;
+		case SUBSCRIBED_NODE:	//SUBSCRIBE NODE
 			if(verbo > 3) printmsg(addr, args);
 			if(subscribtion_list.indexOf(Integer.parseInt(args[2].toString())) == -1) {
 				subscribtion_list.addElement(Integer.parseInt(args[2].toString()));
 				subscribtion.addElement(new Subscribtion(Integer.parseInt(args[2].toString())));
 			}
-		} else if(addr.equals("/unsubscribed/node")) {	//UNSUBSCRIBE NODE
+			break;
+		case UNSUBSCRIBED_NODE:	//UNSUBSCRIBE NODE
 			if(verbo > 3) printmsg(addr, args);
 			int nodeIndex = subscribtion_list.indexOf(Integer.parseInt(args[2].toString()));
 			if(nodeIndex != -1) {
 				subscribtion_list.removeElementAt(nodeIndex);
 				subscribtion.removeElementAt(nodeIndex);
 			}
-	 	} else if(addr.equals("/subscribed/slot")) {	//SUBSCRIBE SLOT
+			break;
+		case SUBSCRIBED_SLOT:	//SUBSCRIBE SLOT
 			if(verbo > 3) printmsg(addr, args);
 			if(subscribtion_list.indexOf(Integer.parseInt(args[2].toString())) == -1) {
 				subscribtion_list.addElement(Integer.parseInt(args[2].toString()));
 				subscribtion.addElement(new Subscribtion(Integer.parseInt(args[2].toString()), Integer.parseInt(args[3].toString())));
 			} else subscribtion.elementAt(subscribtion_list.indexOf(Integer.parseInt(args[2].toString()))).addSubscribedSlot(Integer.parseInt(args[3].toString()));
-		} else if(addr.equals("/unsubscribed/slot")) {	//UNSUBSCRIBED SLOT
+			break;
+		case UNSUBSCRIBED_SLOT:	//UNSUBSCRIBED SLOT
 			if(verbo > 3) printmsg(addr, args);
-			int nodeIndex = subscribtion_list.indexOf(Integer.parseInt(args[2].toString()));
+			nodeIndex = subscribtion_list.indexOf(Integer.parseInt(args[2].toString()));
 			if(nodeIndex != -1) {
 				subscribtion.elementAt(nodeIndex).removeSusbscribedSlot(Integer.parseInt(args[3].toString()));
 				if(subscribtion.elementAt(nodeIndex).getSize() == 0) {
@@ -186,9 +397,12 @@ public class DNConnection {
 					subscribtion.removeElementAt(nodeIndex);
 				}
 			}
-		} else if(addr.equals("/removed/node")) {	//REMOVED NODE			
+			break;
+		case REMOVED_NODE:	//REMOVED NODE			
 			if(verbo > 3) printmsg(addr, args);
-		} else if(addr.equals("/info/node")) {	//INFO NODE - ADD PREVIOUSLY SUBSCRIBED NODES ON SERVER REBOOT
+			break;
+		case INFO_NODE:	//INFO NODE - ADD PREVIOUSLY SUBSCRIBED NODES ON SERVER REBOOT
+			if(message.getArgumentCount() > 3) dataDecoder.setSchema(message.getInt(0), message.getInt(2), message.getInt(3));
 			if(!subscribtion.isEmpty()) {
 				for(int i = 0;i< subscribtion.size();i++) {
 					if(subscribtion.elementAt(i).getSize() != 0) subscribeSlot(subscribtion.elementAt(i).getSusbscribedNode(), subscribtion.elementAt(i).getSusbscribedSlots());	
@@ -197,33 +411,49 @@ public class DNConnection {
 			}
 			if(verbo > 3) printmsg(addr, args);
 			dnEventInvoke(message);
-		} else if(addr.equals("/info/expected") || addr.equals("/info/slot") || addr.equals("/info/client") || addr.equals("/info/setter") || addr.equals("/data/node") || addr.equals("/data/slot") || addr.equals("/removed/node")) {
+			break;
+		case INFO_EXPECTED:
+		case INFO_SLOT:
+		case INFO_CLIENT:
+		case INFO_SETTER:
+		case DATA_NODE:
+		case DATA_SLOT:
 			if(verbo > 3) printmsg(addr, args);
 			dnEventInvoke(message);
-		} else if(addr.equals("/info/minibee")) {
+			break;
+		case INFO_MINIBEE:
 			if(verbo > 3) printmsg(addr, args);
 			dnEventInvoke(message);
-		} else if(addr.equals("/mapped/minibee/output") || addr.equals("/mapped/minibee/custom")) {
+			break;
+		case MAPPED_MINIBEE_OUTPUT:
+		case MAPPED_MINIBEE_CUSTOM:
 			if(verbo > 3) System.out.println("minibee " + args[1] + " mapped to node " + args[0]);
    
 			if(minibee_list.indexOf(Integer.parseInt(args[1].toString())) == -1) {
 				minibee_list.addElement(Integer.parseInt(args[1].toString()));
 				minibee.addElement(new MiniBee(Integer.parseInt(args[0].toString()), Integer.parseInt(args[1].toString())));
 			}
-		} else if(addr.equals("/unmapped/minibee/custom") || addr.equals("/unmapped/minibee/output")) {
+			break;
+		case UNMAPPED_MINIBEE_CUSTOM:
+		case UNMAPPED_MINIBEE_OUTPUT:
 			if(verbo > 3) System.out.println("minibee " + args[1] + " unmapped from node " + args[0]);
 			
-			int nodeIndex = subscribtion_list.indexOf(Integer.parseInt(args[1].toString()));
+			nodeIndex = subscribtion_list.indexOf(Integer.parseInt(args[1].toString()));
 			if(nodeIndex != -1) {
 				subscribtion_list.removeElementAt(nodeIndex);
 				subscribtion.removeElementAt(nodeIndex);
 			}
-		} else {
-			System.err.println("\nSenseWorldDataNetwork unexpected message from server: ");
-			printmsg(addr, args);
+			break;
+		default:
+			unexpected(addr, args);
 		}
 	}
 	
+	private void unexpected(String addr, Object[] args) {
+		System.err.println("\nSenseWorldDataNetwork unexpected message from server: ");
+		printmsg(addr, args);
+	}
+	
 	/** 
 	 * Looks for which dnEvent method is implemented in the Processing sketch and passes the right arguments to the correct method.
 	 * <p>dnEvent[0] will pass the whole OSCMessage.  Make sure the datanetwork.javaosc.OSCMessage is imported in the Processing sketch.<br />
@@ -233,35 +463,120 @@ public class DNConnection {
 	 * @param message the OSCMessage being passed to the dnEvent method.
 	 */
 	private void dnEventInvoke(OSCMessage message) {
-		if(dnEvent[0] != null) {
+		for(OSCListener listener : messageListeners) {
+			listener.acceptMessage(message);
+		}
+		MethodHandle handle = dnEvent[0];
+		if(handle != null) {
 			try {
-				dnEvent[0].invoke(parent, new Object[] { message } );
-			} catch (Exception e) {
-				System.err.println("\nSenseWorldDataNetwork client error: dnEvent[0] method not present in the Processing sketch.");
+				handle.invokeExact(message);
+			} catch (Throwable e) {
+				System.err.println("\nSenseWorldDataNetwork client error: dnEvent[0] method failed in the Processing sketch.");
 				e.printStackTrace();
-				dnEvent = null;
+				dnEvent[0] = null;
 			}
 		}
-		if(dnEvent[1] != null) {
+		handle = dnEvent[1];
+		if(handle != null) {
 			try {
-				dnEvent[1].invoke(parent, new Object[] { message.getAddress(), message.getArgumentsString() } );
-			} catch (Exception e) {
-				System.err.println("\nSenseWorldDataNetwork client error: dnEvent[1] method not present in the Processing sketch.");
+				handle.invokeExact(message.getAddress(), message.getArgumentsString());
+			} catch (Throwable e) {
+				System.err.println("\nSenseWorldDataNetwork client error: dnEvent[1] method failed in the Processing sketch.");
 				e.printStackTrace();
-				dnEvent = null;
+				dnEvent[1] = null;
 			}
 		}
-		if(dnEvent[2] != null) {
+		handle = dnEvent[2];
+		if(handle != null) {
 			try {
-				dnEvent[2].invoke(parent, new Object[] { message.getAddress(), message.getArgumentsFloat() });
-			} catch (Exception e) {
-				System.err.println("\nSenseWorldDataNetwork client error: dnEvent[2] method not present in the Processing sketch.");
+				handle.invokeExact(message.getAddress(), message.getArgumentsFloat());
+			} catch (Throwable e) {
+				System.err.println("\nSenseWorldDataNetwork client error: dnEvent[2] method failed in the Processing sketch.");
 				e.printStackTrace();
-				dnEvent = null;
+				dnEvent[2] = null;
 			}
 		}
 	}
 	
+	/**
+	 * Binds a dnEvent method of the sketch once, as a {@link MethodHandle} invoked without reflection or argument arrays.
+	 * Whatever the method returns is dropped, so that the handle matches the void calls of {@link #dnEventInvoke(OSCMessage message)}.
+	 * @return the bound method, or null if the sketch does not implement it.
+	 */
+	private MethodHandle bindEvent(Class<?>[] types) {
+		try {
+			Method method = parent.getClass().getMethod("dnEvent", types);
+			try {
+				method.setAccessible(true);	//sketches declared in a non-public class
+			} catch (SecurityException e) {}
+			return MethodHandles.lookup().unreflect(method).bindTo(parent).asType(MethodType.methodType(void.class, types));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	/** 
+	 * Delivers the data of float nodes once per frame on the sketch's animation thread, instead of as it arrives on the receiving thread.
+	 * Each node's data is kept until the next frame, later data overwriting earlier data, and before every draw() dnEvent and the
+	 * {@link #onNodeData(NodeListener listener)} listeners are called once for each node that changed, with its latest values.
+	 * The sketch then never reads data while it is being written, and a slow frame no longer leaves messages piling up.
+	 * Other messages are still delivered as they arrive.
+	 *
+	 * @param sync true to deliver node data once per frame, false to deliver every message as it arrives.
+	 */
+	public void setFrameSync(boolean sync) {
+		frame = sync ? new DNFrameBuffer() : null;
+		if(sync && !preRegistered) {
+			parent.registerPre(this);
+			preRegistered = true;
+		}
+	}
+	
+	/** 
+	 * Not to be called directly.
+	 * Called by Processing before each draw() to deliver the nodes updated since the last frame.
+	 */
+	public void pre() {
+		DNFrameBuffer f = frame;
+		if(f != null) f.read(frameListener);
+	}
+	
+	/** 
+	 * Calls a listener with every message that would be passed to dnEvent, without going through the sketch.
+	 *
+	 * @param listener the listener to call.
+	 */
+	public void onMessage(OSCListener listener) {
+		messageListeners.add(listener);
+	}
+	
+	/** 
+	 * Calls a listener with the data of every node that is not bound to an array, decoded straight into a float array reused for each node.
+	 * When neither dnEvent nor {@link #onMessage(OSCListener listener)} is used, the data then reaches the listener without any allocation.
+	 *
+	 * @see NodeListener
+	 * @param listener the listener to call.
+	 */
+	public void onNodeData(NodeListener listener) {
+		nodeListeners.add(listener);
+	}
+	
+	/** 
+	 * Stops calling a listener added with {@link #onMessage(OSCListener listener)}.
+	 * @param listener the listener to remove.
+	 */
+	public void removeMessageListener(OSCListener listener) {
+		messageListeners.remove(listener);
+	}
+	
+	/** 
+	 * Stops calling a listener added with {@link #onNodeData(NodeListener listener)}.
+	 * @param listener the listener to remove.
+	 */
+	public void removeNodeListener(NodeListener listener) {
+		nodeListeners.remove(listener);
+	}
+	
 	/**
 	 * Sets the level of verbosity.<br /><br /> 
 	 * 0 - only sever announce and quit messages.<br />
@@ -284,6 +599,228 @@ public class DNConnection {
 		return verbo;
 	}
 	
+	/** 
+	 * Collects the messages sent to the server into OSC bundles, so that a frame updating many nodes goes out as a few datagrams.
+	 * The pending bundle is sent when it reaches <code>maxBundleSize</code>, after <code>maxDelayMillis</code>, on {@link #flush()},
+	 * and at the end of every draw() of the Processing sketch.
+	 *
+	 * @param maxBundleSize the largest datagram to send, in bytes, such as 1472 on Ethernet or Wi-Fi, or 0 to send each message on its own.
+	 * @param maxDelayMillis the longest a message is held back, or 0 to only send at the end of draw(), on size or on {@link #flush()}.
+	 */
+	public void setBatching(int maxBundleSize, int maxDelayMillis) {
+		batchSize = maxBundleSize;
+		batchDelay = maxDelayMillis;
+		out.setBatching(maxBundleSize, maxDelayMillis);
+		if(sendQueueCapacity > 0) setAsyncSend(sendQueueCapacity);	//bundles must fit the send queue
+		if(maxBundleSize > 0 && !postRegistered) {
+			parent.registerPost(this);
+			postRegistered = true;
+		}
+	}
+	
+	/** 
+	 * Sends the messages collected since the last bundle was sent.  Only needed when batching.
+	 *
+	 * @see #setBatching(int maxBundleSize, int maxDelayMillis)
+	 */
+	public void flush() {
+		out.flush();
+	}
+	
+	/** 
+	 * Not to be called directly.
+	 * Called by Processing after each draw() to send the frame's bundle.
+	 */
+	public void post() {
+		out.flush();
+	}
+	
+	/** 
+	 * Sends the messages to the server from a thread of its own, so that draw() never waits for the network.
+	 * Messages are queued, and the oldest is dropped when the network cannot keep up with the sketch.
+	 *
+	 * @param capacity the number of messages queued, or 0 to send each message from the thread calling the DNConnection.
+	 */
+	public void setAsyncSend(int capacity) {
+		sendQueueCapacity = capacity;
+		out.setAsync(capacity, Math.max(maxPacketSize, Math.max(batchSize, fragmentSize)), OSCRingBuffer.Overflow.DROP_OLDEST);
+	}
+	
+	/** 
+	 * Returns the queue of messages waiting to be sent, to read its depth and how many messages it dropped.
+	 * @return the queue, or null if messages are sent from the thread calling the DNConnection.
+	 */
+	public OSCRingBuffer getSendQueue() {
+		return out.getSendQueue();
+	}
+	
+	/** 
+	 * Returns the number of messages that could not be sent to the server.
+	 * @return the number of failed messages.
+	 */
+	public long getSendErrors() {
+		return out.getSendErrors();
+	}
+	
+	/** 
+	 * Opens the port sending to the server, through the connection's outgoing transport if it was given one, and restores its batching.
+	 */
+	void openPortOut() {
+		if(outTransport != null) out = new OSCPortOut(address, outgoing_port, outTransport);
+		else out = new OSCPortOut(address, outgoing_port);
+		if(batchSize > 0) out.setBatching(batchSize, batchDelay);
+		if(fragmentSize > 0) out.setFragmentation(fragmentSize);
+		if(sendQueueCapacity > 0) out.setAsync(sendQueueCapacity, Math.max(maxPacketSize, Math.max(batchSize, fragmentSize)), OSCRingBuffer.Overflow.DROP_OLDEST);
+	}
+	
+	/** 
+	 * Sets the queue between the thread reading the incoming port and the thread calling dnEvent.
+	 * By default {@value #RING_CAPACITY} messages are queued, and when a slow dnEvent lets the queue fill up the oldest node data is dropped.
+	 * Only "/data/node" and "/data/slot" messages are ever dropped: the others, such as "/registered" or "/info/node", wait for room.
+	 *
+	 * @param capacity the number of messages the queue holds, or 0 to call dnEvent on the reading thread.
+	 * @param overflow what to do with incoming messages when the queue is full.
+	 */
+	public void setRingBuffer(int capacity, OSCRingBuffer.Overflow overflow) {
+		in.setRingBuffer((capacity > 0) ? new OSCRingBuffer(capacity, maxPacketSize, overflow) : null);
+	}
+	
+	/** 
+	 * Sets the size of the largest datagram received from the server.  The rest of a larger datagram is lost.
+	 * Call it before {@link #setThreads(int threads)}, whose queues are sized on it.
+	 *
+	 * @param size the size in bytes, {@value #MAX_PACKET_SIZE} by default.
+	 */
+	public void setMaxPacketSize(int size) {
+		maxPacketSize = size;
+		in.setMaxPacketSize(size);
+		OSCRingBuffer ring = in.getRingBuffer();
+		if(ring != null) setRingBuffer(ring.getCapacity(), ring.getOverflow());
+	}
+	
+	/** 
+	 * Sends the messages larger than a datagram in fragments, and puts back together the fragmented messages from the server,
+	 * so that large /info replies and string nodes arrive whole.  Both ends must fragment the same way.
+	 *
+	 * @param maxDatagramSize the largest datagram to send, in bytes, such as 1472 on Ethernet or Wi-Fi, or 0 to stop fragmenting.
+	 * @param maxMessageSize the largest message to put back together, in bytes.
+	 */
+	public void setFragmentation(int maxDatagramSize, int maxMessageSize) {
+		fragmentSize = maxDatagramSize;
+		out.setFragmentation(maxDatagramSize);
+		in.setReassembler((maxDatagramSize > 0) ? new OSCReassembler(maxMessageSize) : null);
+		if(sendQueueCapacity > 0) setAsyncSend(sendQueueCapacity);	//fragments must fit the send queue
+	}
+	
+	/** 
+	 * Sets the number of threads receiving and dispatching the server's messages.
+	 * With more than one thread the messages are dispatched by as many workers.  The data of each node always goes to the same worker,
+	 * so it stays in order, while the data of different nodes is handled in parallel; every other message goes to the first worker.
+	 * dnEvent is then called from several threads at once.
+	 * <p>An incoming port bound by the connection is also read by several sockets sharing it with SO_REUSEPORT, where the system supports it.
+	 * The system spreads the datagrams among them by their source address, and all the data comes from the server,
+	 * so it arrives on a single socket: only the dispatching scales.  A TCP connection or a transport given to the constructor
+	 * is read as before, and only gets the workers.</p>
+	 *
+	 * @param threads the number of threads, 1 for a single thread.
+	 */
+	public void setThreads(int threads) {
+		if(threads <= 1) {
+			setStripes(0);
+		} else if(!bindsIncoming) {
+			in.setWorkers(threads, RING_CAPACITY, (stream != null) ? OSCRingBuffer.Overflow.BLOCK : OSCRingBuffer.Overflow.DROP_OLDEST, nodePartitioner);
+		} else if(bindIncoming(threads)) {
+			in.setWorkers(threads, RING_CAPACITY, OSCRingBuffer.Overflow.DROP_OLDEST, nodePartitioner);
+		} else {
+			bindIncoming(1);
+		}
+	}
+	
+	/**
+	 * Binds the incoming port again, with <code>threads</code> sockets sharing it, or with a single one.
+	 * @return true if the port is bound.
+	 */
+	private boolean bindIncoming(int threads) {
+		int port = in.getPort();
+		in.closeTransport();	//free the port before binding it again
+		try {
+			if(threads > 1) in.setTransport(new OSCShardedTransport(port, threads));
+			else if(incomingSelector != null) in.setTransport(new OSCChannelTransport(port, incomingSelector));
+			else in.setTransport(new OSCSocketTransport(port));
+			return true;
+		} catch (IOException e) {
+			System.err.println("\nSenseWorldDataNetwork error: could not open "+threads+" socket(s) on port "+port+".");
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/** 
+	 * Dispatches the server's messages on several threads, without changing how the incoming port is read.
+	 * The data of each node is hashed by its ID onto one of <code>stripes</code> single threaded workers, so it stays in order,
+	 * while the data of different nodes is handled in parallel; every other message goes to the first worker.
+	 * Use it when the listeners, rather than receiving, are the bottleneck.  dnEvent and the listeners are then called from several threads at once.
+	 *
+	 * @see #getStripes()
+	 * @param stripes the number of workers, 0 or 1 to dispatch on the receiving thread again, the port then being read by a single socket
+	 * if {@link #setThreads(int threads)} had shared it among several.
+	 */
+	public void setStripes(int stripes) {
+		if(stripes > 1) {
+			in.setWorkers(stripes, RING_CAPACITY, (stream != null) ? OSCRingBuffer.Overflow.BLOCK : OSCRingBuffer.Overflow.DROP_OLDEST, nodePartitioner);
+			return;
+		}
+		//the sockets set by setThreads would all dispatch at once without the workers: read the port with a single one again
+		if(in.getTransport() instanceof OSCShardedTransport) bindIncoming(1);
+		in.setWorkers(0, 0, null, null);
+	}
+	
+	/** 
+	 * Returns the queue of each dispatch worker, set with {@link #setStripes(int stripes)} or {@link #setThreads(int threads)}.
+	 * Each queue tells how many messages are waiting in it with size(), and how long they waited with getAverageLatency() and getMaxLatency().
+	 *
+	 * @return one queue per worker, or null if the messages are dispatched on the receiving thread.
+	 */
+	public OSCRingBuffer[] getStripes() {
+		return in.getWorkerRingBuffers();
+	}
+	
+	/** 
+	 * Also receives the data the server sends to a multicast group, so that clients subscribed to the same nodes can share one copy of each update.
+	 * The group's messages are handled exactly like the ones sent to the incoming port, and an update received both ways is only handled once.
+	 *
+	 * @param group the address of the multicast group, such as 239.0.0.1.
+	 * @param port the port the server sends the group's data to.
+	 */
+	public void joinMulticast(String group, int port) {
+		leaveMulticast();
+		try {
+			multicast = new OSCMulticastTransport(port, group);
+			in.addTransport(multicast);
+		} catch (IOException e) {
+			System.err.println("\nSenseWorldDataNetwork error: could not join multicast group "+group+" on port "+port+".");
+			e.printStackTrace();
+			multicast = null;
+		}
+	}
+	
+	/** 
+	 * Stops receiving from the multicast group joined with {@link #joinMulticast(String group, int port)}.
+	 */
+	public void leaveMulticast() {
+		if(multicast == null) return;
+		in.removeTransport(multicast);
+		multicast = null;
+	}
+	
+	/** 
+	 * Returns the queue between the incoming port and dnEvent, to read its occupancy and how many messages it dropped.
+	 * @return the queue, or null if dnEvent is called on the reading thread.
+	 */
+	public OSCRingBuffer getRingBuffer() {
+		return in.getRingBuffer();
+	}
+	
 	/**
 	 * Prints the recieved OSCMessage cleanly to the console.
 	 * Used for debugging.
@@ -538,6 +1075,111 @@ public class DNConnection {
 		}
 	}
 	
+	/**
+	 * Binds an array to a float node: every "/data/node" or "/data/slot" message for that node is copied straight into <code>data</code>,
+	 * slot by slot, as soon as it is received.  The messages of a bound node are not passed to the dnEvent methods.
+	 * If a message does not match the node's known layout, it is delivered to dnEvent as usual.
+	 *
+	 * @param nodeId the ID of the node.
+	 * @param data the array that will hold the node's slots.  It needs to be at least as long as the node.
+	 */
+	public void bindNode(int nodeId, float[] data) {
+		dataDecoder.bind(nodeId, data);
+	}
+	
+	/**
+	 * Binds an array to a String node.
+	 *
+	 * @see #bindNode(int nodeId, float[] data)
+	 * @param nodeId the ID of the node.
+	 * @param data the array that will hold the node's slots.  It needs to be at least as long as the node.
+	 */
+	public void bindNode(int nodeId, String[] data) {
+		dataDecoder.bind(nodeId, data);
+	}
+	
+	/**
+	 * Stops copying a node's data into its bound array.  Its messages are passed to dnEvent again.
+	 *
+	 * @param nodeId the ID of the node.
+	 */
+	public void unbindNode(int nodeId) {
+		dataDecoder.unbind(nodeId);
+	}
+	
+	/**
+	 * Subscribes to a float node and calls a listener with its data, instead of passing it to dnEvent.
+	 * The listeners of a node are found by its ID in constant time, and its values are decoded straight from the receive buffer into
+	 * an array kept for that node, so delivering them allocates nothing.  The array is overwritten by the next message of the node.
+	 * With {@link #setFrameSync(boolean sync)}, the listener is called once per frame on the animation thread.
+	 *
+	 * @param nodeId the ID of the node to subscribe to.
+	 * @param listener the listener to call with the node's ID and values.
+	 */
+	public void subscribeNode(int nodeId, NodeListener listener) {
+		router.addNode(nodeId, listener);
+		subscribeNode(nodeId);
+	}
+	
+	/**
+	 * Subscribes to a String node and calls a listener with its data.  A String is only created when a slot's value changes.
+	 *
+	 * @see #subscribeNode(int nodeId, NodeListener listener)
+	 * @param nodeId the ID of the node to subscribe to.
+	 * @param listener the listener to call with the node's ID and values.
+	 */
+	public void subscribeStringNode(int nodeId, StringNodeListener listener) {
+		router.addStringNode(nodeId, listener);
+		subscribeNode(nodeId);
+	}
+	
+	/**
+	 * Subscribes to a slot of a float node and calls a listener with its value, whether it arrives alone or with the whole node.
+	 *
+	 * @see #subscribeNode(int nodeId, NodeListener listener)
+	 * @param nodeId the ID of the node that contains the slot.
+	 * @param slotId the ID of the slot to subscribe to.
+	 * @param listener the listener to call with the slot's value.
+	 */
+	public void subscribeSlot(int nodeId, int slotId, SlotListener listener) {
+		router.addSlot(nodeId, slotId, listener);
+		subscribeSlot(nodeId, slotId);
+	}
+	
+	/**
+	 * Stops calling a listener added with {@link #subscribeNode(int nodeId, NodeListener listener)},
+	 * and unsubscribes from the node once it has no node listener left.
+	 *
+	 * @param nodeId the ID of the node.
+	 * @param listener the listener to remove.
+	 */
+	public void unsubscribeNode(int nodeId, NodeListener listener) {
+		if(router.removeNode(nodeId, listener)) unsubscribeNode(nodeId);
+	}
+	
+	/**
+	 * Stops calling a listener added with {@link #subscribeStringNode(int nodeId, StringNodeListener listener)},
+	 * and unsubscribes from the node once it has no node listener left.
+	 *
+	 * @param nodeId the ID of the node.
+	 * @param listener the listener to remove.
+	 */
+	public void unsubscribeStringNode(int nodeId, StringNodeListener listener) {
+		if(router.removeStringNode(nodeId, listener)) unsubscribeNode(nodeId);
+	}
+	
+	/**
+	 * Stops calling a listener added with {@link #subscribeSlot(int nodeId, int slotId, SlotListener listener)},
+	 * and unsubscribes from the slot once it has no listener left.
+	 *
+	 * @param nodeId the ID of the node that contains the slot.
+	 * @param slotId the ID of the slot.
+	 * @param listener the listener to remove.
+	 */
+	public void unsubscribeSlot(int nodeId, int slotId, SlotListener listener) {
+		if(router.removeSlot(nodeId, slotId, listener)) unsubscribeSlot(nodeId, slotId);
+	}
+	
 	/**
 	 * Asks a node for the data it contains.  It does not return anything on its own. 
 	 * The data will be passed to the dnEvent method wiht the "/data/node" address.
@@ -585,16 +1227,11 @@ public class DNConnection {
 			if(node.type != 0) {
 				System.out.println("\nDNNode error: wrong data type for node type " + node.type);
 			} else {
-				Vector<Object> args = new Vector<Object>();
-				for(int i = 0;i < data.length; i++) {
-					args.add(i, data[i]);
-				}	
-				args.add(0, incoming_port);
-				args.add(1, name);
-				args.add(2, node.nodeId);
-				Object[] arg = args.toArray();	
-				OSCMessage msg = new OSCMessage("/set/data", arg);
-				out.send(msg);
+				OSCMessageTemplate template = dataTemplate(node, 'f', data.length);
+				synchronized(template) {
+					template.setFloats(data);
+					out.send(template);
+				}
 			}
 		} else {
 			if(verbo > 2) System.err.println("\nSenseWorldDataNetwork warning: either the client is not registered or the node is not expected. Cannot set node "+node.nodeId);		
@@ -615,22 +1252,36 @@ public class DNConnection {
 			if(node.type != 1) {
 				System.out.println("\nDNNode error: wrong data type for node type " + node.type);
 			} else {
-				Vector<Object> args = new Vector<Object>();
-				for(int i = 0;i < data.length; i++) {
-					args.add(i, data[i]);
-				}	
-				args.add(0, incoming_port);
-				args.add(1, name);
-				args.add(2, node.nodeId);
-				Object[] arg = args.toArray();	
-				OSCMessage msg = new OSCMessage("/set/data", arg);
-				out.send(msg);
+				OSCMessageTemplate template = dataTemplate(node, 's', data.length);
+				synchronized(template) {
+					template.setStrings(data);
+					out.send(template);
+				}
 			}
 		} else {
 			if(verbo > 2) System.err.println("\nSenseWorldDataNetwork warning: the client is not yet registered. Cannot set nodes.");		
 		}
 	}
 	
+	/**
+	 * Returns the node's compiled "/set/data" message, building it if the payload type or size has changed.
+	 * The port, client name and node id are encoded once, so each update only patches the payload.
+	 * The messages are kept by the connection, as they carry its port and name, so a node can be set through several connections.
+	 *
+	 * @param node the node being set.
+	 * @param type 'f' for float data, 's' for String data.
+	 * @param size the number of slots being set.
+	 */
+	private OSCMessageTemplate dataTemplate(DNNode node, char type, int size) {
+		OSCMessageTemplate template = dataTemplates.get(node.nodeId);
+		if(template == null || !template.matches(type, size)) {
+			Object[] header = {incoming_port, name, node.nodeId};
+			template = new OSCMessageTemplate("/set/data", header, type, size);
+			dataTemplates.put(node.nodeId, template);
+		}
+		return template;
+	}
+	
 	/**
 	 * Removes a node from the network.  Only possible if the client is the setter of the node.
 	 *
@@ -678,6 +1329,7 @@ public class DNConnection {
 			node.expected(true);
 			client_nodes.addElement(node);
 		}
+		dataDecoder.setSchema(node.nodeId, node.getSize(), node.type);
 		if(isRegistered) {
 			Object[] arg = {incoming_port, name, node.nodeId, node.getSize(), node.label, node.type};	
 			OSCMessage msg = new OSCMessage("/add/expected", arg);
@@ -699,6 +1351,7 @@ public class DNConnection {
 				client_nodes.addElement(nodes[i]);
 				nodes[i].expected(true);
 			}
+			dataDecoder.setSchema(nodes[i].nodeId, nodes[i].getSize(), nodes[i].type);
 		}
 		if(isRegistered) {
 			for(int i = 0;i < nodes.length;i++) {
@@ -0,0 +1,140 @@
+package datanetwork;
+
+import datanetwork.javaosc.*;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Fast path for the "/data/node" and "/data/slot" messages of nodes whose layout is known.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * <p>Once a node's type and number of slots are known, from "/info/node" or from a {@link DNNode} this client publishes,
+ * every data message for that node has the same type tags.  The decoder keeps those expected type tags per node id.
+ * When a data message for a bound node matches them, its payload is copied straight from the receive buffer into the
+ * array the sketch bound to the node, without going through the general decoder.  Anything that does not match is left to the general decoder.</p>
+ *
+ * @see DNConnection#bindNode(int nodeId, float[] data)
+ * @see DNConnection#bindNode(int nodeId, String[] data)
+ */
+
+public class DNDataDecoder {
+
+	/**
+	 * The cached layout of one node and the arrays its data is copied to.  Never modified once published.
+	 */
+	static class Schema {
+		final int nodeId, size, type;
+		final float[] floats;
+		final String[] strings;
+		final byte[] nodeTags, slotTags;
+
+		Schema(int nodeId, int size, int type, float[] floats, String[] strings) {
+			this.nodeId = nodeId;
+			this.size = size;
+			this.type = type;
+			this.floats = floats;
+			this.strings = strings;
+			char slotType = (type == 0) ? 'f' : 's';
+			int bound = (floats != null) ? floats.length : (strings != null) ? strings.length : -1;
+			int slots = (size >= 0) ? size : bound;
+			boolean usable = bound >= 0 && slots <= bound && (type == 0) == (floats != null);
+			if(usable) {
+				nodeTags = new byte[slots + 1];
+				nodeTags[0] = 'i';
+				for(int i = 1;i < nodeTags.length;i++) nodeTags[i] = (byte) slotType;
+				slotTags = new byte[] { 'i', 'i', (byte) slotType };
+			} else {
+				nodeTags = null;
+				slotTags = null;
+			}
+		}
+	}
+
+	IntMap<Schema> schemas = new IntMap<Schema>();
+
+	/**
+	 * Records the layout of a node, keeping any array bound to it.
+	 *
+	 * @param nodeId the ID of the node.
+	 * @param size the number of slots of the node.
+	 * @param type the type of the node's slots, 0 for floats and 1 for Strings.
+	 */
+	public synchronized void setSchema(int nodeId, int size, int type) {
+		Schema old = schemas.get(nodeId);
+		if(old != null && old.size == size && old.type == type) return;
+		float[] floats = (old != null) ? old.floats : null;
+		String[] strings = (old != null) ? old.strings : null;
+		schemas.put(nodeId, new Schema(nodeId, size, type, floats, strings));
+	}
+
+	/**
+	 * Copies the data of a float node into <code>data</code> as it arrives.
+	 * @param nodeId the ID of the node.
+	 * @param data the array to fill, at least as long as the node.
+	 */
+	public synchronized void bind(int nodeId, float[] data) {
+		Schema old = schemas.get(nodeId);
+		schemas.put(nodeId, new Schema(nodeId, (old != null) ? old.size : -1, 0, data, null));
+	}
+
+	/**
+	 * Copies the data of a String node into <code>data</code> as it arrives.
+	 * @param nodeId the ID of the node.
+	 * @param data the array to fill, at least as long as the node.
+	 */
+	public synchronized void bind(int nodeId, String[] data) {
+		Schema old = schemas.get(nodeId);
+		schemas.put(nodeId, new Schema(nodeId, (old != null) ? old.size : -1, 1, null, data));
+	}
+
+	/**
+	 * Stops copying the data of a node, keeping its layout.
+	 * @param nodeId the ID of the node.
+	 */
+	public synchronized void unbind(int nodeId) {
+		Schema old = schemas.get(nodeId);
+		if(old != null) schemas.put(nodeId, new Schema(nodeId, old.size, old.type, null, null));
+	}
+
+	/**
+	 * Tries to decode a message through the fast path.
+	 * @param view the received message.
+	 * @return true if the message was a data message of a bound node and its payload has been copied; false if it has to go through the general decoder.
+	 */
+	public boolean decode(OSCMessageView view) {
+		if(view.getArgumentCount() < 2 || view.typeTagAt(0) != 'i') return false;
+		int id = view.getAddressId();
+		boolean isNode = (id >= 0) ? id == DNConnection.DATA_NODE : view.addressEquals("/data/node");
+		boolean isSlot = (id >= 0) ? id == DNConnection.DATA_SLOT : view.addressEquals("/data/slot");
+		if(!isNode && !isSlot) return false;
+
+		ByteBuffer buffer = view.getBuffer();
+		Schema schema = schemas.get(buffer.getInt(view.getArgumentOffset(0)));
+		if(schema == null || schema.nodeTags == null) return false;
+
+		if(isNode) {
+			if(!view.typeTagsEqual(schema.nodeTags)) return false;
+			int slots = schema.nodeTags.length - 1;
+			if(schema.floats != null) {
+				int offset = view.getArgumentOffset(1);
+				for(int i = 0;i < slots;i++) schema.floats[i] = buffer.getFloat(offset + 4 * i);
+			} else {
+				for(int i = 0;i < slots;i++) copyString(view, i + 1, schema.strings, i);
+			}
+		} else {
+			if(!view.typeTagsEqual(schema.slotTags)) return false;
+			int slot = buffer.getInt(view.getArgumentOffset(1));
+			if(slot < 0 || slot >= schema.nodeTags.length - 1) return false;
+			if(schema.floats != null) schema.floats[slot] = buffer.getFloat(view.getArgumentOffset(2));
+			else copyString(view, 2, schema.strings, slot);
+		}
+		return true;
+	}
+
+	/**
+	 * Only allocates a new String when the slot's value has changed.
+	 */
+	private void copyString(OSCMessageView view, int argument, String[] dst, int index) {
+		if(!view.stringEquals(argument, dst[index])) dst[index] = view.getString(argument);
+	}
+}
@@ -0,0 +1,126 @@
+package datanetwork;
+
+import datanetwork.javaosc.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Holds the latest data of each float node between the thread receiving it and the sketch's animation thread.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * <p>Every "/data/node" or "/data/slot" message overwrites the node's latest values instead of being dispatched, so a node updated
+ * ten times between two frames is only delivered once, with its last values.  Each node has three buffers: the receiving thread
+ * fills one and publishes it by swapping it with the middle one, and once per frame the animation thread swaps its own with the
+ * middle one if it has changed.  Neither side waits for the other or takes a lock, and the sketch never sees half written values.</p>
+ *
+ * <p>Each node must be written by a single thread at a time, which is the case even with several receiving threads,
+ * as the data of a node always goes to the same one.</p>
+ *
+ * @see DNConnection#setFrameSync(boolean)
+ */
+
+public class DNFrameBuffer {
+
+	private static final int DIRTY = 4;
+	private static final byte[] SLOT_TAGS = { 'i', 'i', 'f' };
+
+	/**
+	 * The buffers of one node.
+	 */
+	static class Node {
+		final int nodeId;
+		final float[][] buffers = new float[3][];
+		final AtomicInteger middle = new AtomicInteger(2);		//index of the middle buffer, with DIRTY set once it holds new values
+		int back = 0;		//only used by the receiving thread
+		int front = 1;		//only used by the animation thread
+		float[] current = new float[0];	//the latest values, kept by the receiving thread to apply slot updates to
+
+		Node(int nodeId) {
+			this.nodeId = nodeId;
+		}
+
+		void publish() {
+			float[] buffer = buffers[back];
+			if(buffer == null || buffer.length != current.length) buffer = buffers[back] = new float[current.length];
+			System.arraycopy(current, 0, buffer, 0, current.length);
+			back = middle.getAndSet(back | DIRTY) & 3;
+		}
+
+		boolean swap() {
+			if((middle.get() & DIRTY) == 0) return false;
+			front = middle.getAndSet(front) & 3;
+			return true;
+		}
+	}
+
+	IntMap<Node> nodes = new IntMap<Node>();
+	private volatile Node[] list = new Node[0];
+
+	/**
+	 * Receiving side: records the values of a float data message.
+	 * @param view the received message.
+	 * @return true if the message was float data and has been recorded; false if it has to be dispatched as usual.
+	 */
+	public boolean write(OSCMessageView view) {
+		int id = view.getAddressId();
+		int count = view.getArgumentCount();
+		if(count < 2 || view.typeTagAt(0) != 'i') return false;
+		ByteBuffer buffer = view.getBuffer();
+		if(id == DNConnection.DATA_NODE) {
+			for(int i = 1;i < count;i++) {
+				if(view.typeTagAt(i) != 'f') return false;
+			}
+			Node node = node(view.getInt(0));
+			if(node.current.length != count - 1) node.current = new float[count - 1];
+			int offset = view.getArgumentOffset(1);
+			for(int i = 0;i < node.current.length;i++) node.current[i] = buffer.getFloat(offset + 4 * i);
+			node.publish();
+			return true;
+		} else if(id == DNConnection.DATA_SLOT) {
+			if(!view.typeTagsEqual(SLOT_TAGS)) return false;
+			Node node = nodes.get(view.getInt(0));
+			int slot = view.getInt(1);
+			//a slot of a node whose size is not known yet is dispatched as usual
+			if(node == null || slot < 0 || slot >= node.current.length) return false;
+			node.current[slot] = view.getFloat(2);
+			node.publish();
+			return true;
+		}
+		return false;
+	}
+
+	private Node node(int nodeId) {
+		Node node = nodes.get(nodeId);
+		if(node != null) return node;
+		synchronized(this) {
+			node = nodes.get(nodeId);
+			if(node != null) return node;
+			node = new Node(nodeId);
+			nodes.put(nodeId, node);
+			Node[] copy = new Node[list.length + 1];
+			System.arraycopy(list, 0, copy, 0, list.length);
+			copy[list.length] = node;
+			list = copy;
+			return node;
+		}
+	}
+
+	/**
+	 * Animation side: calls the listener once for every node updated since the last call, with its latest values.
+	 * The arrays passed to the listener stay untouched by the receiving thread until the next call.
+	 * @param listener the listener to call.
+	 * @return the number of updated nodes.
+	 */
+	public int read(NodeListener listener) {
+		Node[] l = list;
+		int count = 0;
+		for(int i = 0;i < l.length;i++) {
+			Node node = l[i];
+			if(!node.swap()) continue;
+			listener.onNodeData(node.nodeId, node.buffers[node.front]);
+			count++;
+		}
+		return count;
+	}
+}
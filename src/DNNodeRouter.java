@@ -0,0 +1,271 @@
+package datanetwork;
+
+import datanetwork.javaosc.*;
+
+/**
+ * <p>Routes the data of each node straight to the listeners subscribed to it.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * <p>The listeners are kept in an {@link IntMap} keyed by node id, so finding them takes the same time for one node or hundreds.
+ * The values are decoded from the receive buffer into arrays kept for each node and handed to every call, so routing
+ * allocates nothing, apart from a String whose value has changed.  The routes are copied on write and read without locking.</p>
+ *
+ * @see DNConnection#subscribeNode(int nodeId, NodeListener listener)
+ * @see DNConnection#subscribeStringNode(int nodeId, StringNodeListener listener)
+ * @see DNConnection#subscribeSlot(int nodeId, int slotId, SlotListener listener)
+ */
+
+public class DNNodeRouter {
+
+	private static final NodeListener[] NO_NODE_LISTENERS = new NodeListener[0];
+	private static final StringNodeListener[] NO_STRING_LISTENERS = new StringNodeListener[0];
+	private static final SlotListener[][] NO_SLOT_LISTENERS = new SlotListener[0][];
+
+	/**
+	 * The arrays a node's values are decoded into.  Only used by the thread receiving the node's data.
+	 */
+	static class Payload {
+		float[] floats = new float[0];
+		String[] strings = new String[0];
+	}
+
+	/**
+	 * The listeners of one node.  Never modified once published.
+	 */
+	static class Route {
+		final NodeListener[] nodeListeners;
+		final StringNodeListener[] stringListeners;
+		final SlotListener[][] slotListeners;	//indexed by slot id
+		final Payload payload;
+
+		Route(NodeListener[] nodeListeners, StringNodeListener[] stringListeners, SlotListener[][] slotListeners, Payload payload) {
+			this.nodeListeners = nodeListeners;
+			this.stringListeners = stringListeners;
+			this.slotListeners = slotListeners;
+			this.payload = payload;
+		}
+
+		boolean isEmpty() {
+			if(nodeListeners.length > 0 || stringListeners.length > 0) return false;
+			for(int i = 0;i < slotListeners.length;i++) {
+				if(slotListeners[i] != null && slotListeners[i].length > 0) return false;
+			}
+			return true;
+		}
+	}
+
+	IntMap<Route> routes = new IntMap<Route>();
+
+	/**
+	 * Adds a listener to the data of a float node.
+	 * @param nodeId the ID of the node.
+	 * @param listener the listener to add.
+	 */
+	public synchronized void addNode(int nodeId, NodeListener listener) {
+		Route r = route(nodeId);
+		routes.put(nodeId, new Route(append(r.nodeListeners, listener), r.stringListeners, r.slotListeners, r.payload));
+	}
+
+	/**
+	 * Adds a listener to the data of a String node.
+	 * @param nodeId the ID of the node.
+	 * @param listener the listener to add.
+	 */
+	public synchronized void addStringNode(int nodeId, StringNodeListener listener) {
+		Route r = route(nodeId);
+		StringNodeListener[] listeners = new StringNodeListener[r.stringListeners.length + 1];
+		System.arraycopy(r.stringListeners, 0, listeners, 0, r.stringListeners.length);
+		listeners[r.stringListeners.length] = listener;
+		routes.put(nodeId, new Route(r.nodeListeners, listeners, r.slotListeners, r.payload));
+	}
+
+	/**
+	 * Adds a listener to one slot of a float node.
+	 * @param nodeId the ID of the node.
+	 * @param slotId the ID of the slot.
+	 * @param listener the listener to add.
+	 */
+	public synchronized void addSlot(int nodeId, int slotId, SlotListener listener) {
+		Route r = route(nodeId);
+		SlotListener[][] slots = new SlotListener[Math.max(slotId + 1, r.slotListeners.length)][];
+		System.arraycopy(r.slotListeners, 0, slots, 0, r.slotListeners.length);
+		SlotListener[] old = (slots[slotId] != null) ? slots[slotId] : new SlotListener[0];
+		SlotListener[] listeners = new SlotListener[old.length + 1];
+		System.arraycopy(old, 0, listeners, 0, old.length);
+		listeners[old.length] = listener;
+		slots[slotId] = listeners;
+		routes.put(nodeId, new Route(r.nodeListeners, r.stringListeners, slots, r.payload));
+	}
+
+	/**
+	 * Removes a listener added with {@link #addNode(int nodeId, NodeListener listener)}.
+	 * @param nodeId the ID of the node.
+	 * @param listener the listener to remove.
+	 * @return true if the node has no node or String node listener left.
+	 */
+	public synchronized boolean removeNode(int nodeId, NodeListener listener) {
+		Route r = routes.get(nodeId);
+		if(r == null) return true;
+		NodeListener[] nodeListeners = r.nodeListeners;
+		for(int i = 0;i < nodeListeners.length;i++) {
+			if(nodeListeners[i] != listener) continue;
+			nodeListeners = new NodeListener[r.nodeListeners.length - 1];
+			System.arraycopy(r.nodeListeners, 0, nodeListeners, 0, i);
+			System.arraycopy(r.nodeListeners, i + 1, nodeListeners, i, nodeListeners.length - i);
+			break;
+		}
+		update(nodeId, new Route(nodeListeners, r.stringListeners, r.slotListeners, r.payload));
+		return nodeListeners.length == 0 && r.stringListeners.length == 0;
+	}
+
+	/**
+	 * Removes a listener added with {@link #addStringNode(int nodeId, StringNodeListener listener)}.
+	 * @param nodeId the ID of the node.
+	 * @param listener the listener to remove.
+	 * @return true if the node has no node or String node listener left.
+	 */
+	public synchronized boolean removeStringNode(int nodeId, StringNodeListener listener) {
+		Route r = routes.get(nodeId);
+		if(r == null) return true;
+		StringNodeListener[] stringListeners = r.stringListeners;
+		for(int i = 0;i < stringListeners.length;i++) {
+			if(stringListeners[i] != listener) continue;
+			stringListeners = new StringNodeListener[r.stringListeners.length - 1];
+			System.arraycopy(r.stringListeners, 0, stringListeners, 0, i);
+			System.arraycopy(r.stringListeners, i + 1, stringListeners, i, stringListeners.length - i);
+			break;
+		}
+		update(nodeId, new Route(r.nodeListeners, stringListeners, r.slotListeners, r.payload));
+		return r.nodeListeners.length == 0 && stringListeners.length == 0;
+	}
+
+	/**
+	 * Removes a listener added with {@link #addSlot(int nodeId, int slotId, SlotListener listener)}.
+	 * @param nodeId the ID of the node.
+	 * @param slotId the ID of the slot.
+	 * @param listener the listener to remove.
+	 * @return true if the slot has no listener left.
+	 */
+	public synchronized boolean removeSlot(int nodeId, int slotId, SlotListener listener) {
+		Route r = routes.get(nodeId);
+		if(r == null || slotId < 0 || slotId >= r.slotListeners.length || r.slotListeners[slotId] == null) return true;
+		SlotListener[] old = r.slotListeners[slotId];
+		SlotListener[] listeners = old;
+		for(int i = 0;i < old.length;i++) {
+			if(old[i] != listener) continue;
+			listeners = new SlotListener[old.length - 1];
+			System.arraycopy(old, 0, listeners, 0, i);
+			System.arraycopy(old, i + 1, listeners, i, listeners.length - i);
+			break;
+		}
+		SlotListener[][] slots = r.slotListeners.clone();
+		slots[slotId] = (listeners.length > 0) ? listeners : null;
+		update(nodeId, new Route(r.nodeListeners, r.stringListeners, slots, r.payload));
+		return listeners.length == 0;
+	}
+
+	/**
+	 * Removes every listener from a node.
+	 * @param nodeId the ID of the node.
+	 */
+	public void removeAll(int nodeId) {
+		routes.remove(nodeId);
+	}
+
+	/**
+	 * Publishes the new listeners of a node, or drops the node once it has none.
+	 */
+	private void update(int nodeId, Route r) {
+		if(r.isEmpty()) routes.remove(nodeId);
+		else routes.put(nodeId, r);
+	}
+
+	private Route route(int nodeId) {
+		Route r = routes.get(nodeId);
+		return (r != null) ? r : new Route(NO_NODE_LISTENERS, NO_STRING_LISTENERS, NO_SLOT_LISTENERS, new Payload());
+	}
+
+	private static NodeListener[] append(NodeListener[] listeners, NodeListener listener) {
+		NodeListener[] copy = new NodeListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, copy, 0, listeners.length);
+		copy[listeners.length] = listener;
+		return copy;
+	}
+
+	/**
+	 * Hands a "/data/node" or "/data/slot" message to the listeners of its node.
+	 * @param view the received message.
+	 * @return true if the node has listeners and the message was delivered to them.
+	 */
+	public boolean route(OSCMessageView view) {
+		int count = view.getArgumentCount();
+		if(count < 2 || view.typeTagAt(0) != 'i') return false;
+		int id = view.getAddressId();
+		if(id != DNConnection.DATA_NODE && id != DNConnection.DATA_SLOT) return false;
+		int nodeId = view.getInt(0);
+		Route r = routes.get(nodeId);
+		if(r == null) return false;
+		Payload p = r.payload;
+
+		if(id == DNConnection.DATA_NODE) {
+			if(view.typeTagAt(1) == 's') {
+				if(p.strings.length != count - 1) p.strings = new String[count - 1];
+				for(int i = 0;i < p.strings.length;i++) {
+					if(!view.stringEquals(i + 1, p.strings[i])) p.strings[i] = view.getString(i + 1);
+				}
+				for(StringNodeListener listener : r.stringListeners) listener.onNodeData(nodeId, p.strings);
+				return true;
+			}
+			if(p.floats.length != count - 1) p.floats = new float[count - 1];
+			view.copyFloats(p.floats, 1);
+			deliver(r, nodeId, p.floats);
+			return true;
+		}
+
+		if(count < 3) return false;
+		int slot = view.getInt(1);
+		if(slot < 0) return false;
+		if(view.typeTagAt(2) == 's') {
+			if(slot >= p.strings.length) return false;
+			if(!view.stringEquals(2, p.strings[slot])) p.strings[slot] = view.getString(2);
+			for(StringNodeListener listener : r.stringListeners) listener.onNodeData(nodeId, p.strings);
+			return true;
+		}
+		float value = view.getFloat(2);
+		boolean hasSlotListeners = slot < r.slotListeners.length && r.slotListeners[slot] != null;
+		//a slot of a node whose size is not known yet, and that nobody listens to, is dispatched as usual
+		if(slot >= p.floats.length && !hasSlotListeners) return false;
+		if(slot < p.floats.length) {
+			p.floats[slot] = value;
+			for(NodeListener listener : r.nodeListeners) listener.onNodeData(nodeId, p.floats);
+		}
+		if(hasSlotListeners) {
+			for(SlotListener listener : r.slotListeners[slot]) listener.onSlotData(nodeId, slot, value);
+		}
+		return true;
+	}
+
+	/**
+	 * Hands a node's values, already decoded, to its node and slot listeners, for instance once per frame.
+	 * @param nodeId the ID of the node.
+	 * @param data the node's values.
+	 * @return true if the node has listeners.
+	 */
+	public boolean route(int nodeId, float[] data) {
+		Route r = routes.get(nodeId);
+		if(r == null) return false;
+		deliver(r, nodeId, data);
+		return true;
+	}
+
+	private static void deliver(Route r, int nodeId, float[] data) {
+		for(NodeListener listener : r.nodeListeners) listener.onNodeData(nodeId, data);
+		SlotListener[][] slots = r.slotListeners;
+		int n = Math.min(slots.length, data.length);
+		for(int s = 0;s < n;s++) {
+			if(slots[s] == null) continue;
+			for(SlotListener listener : slots[s]) listener.onSlotData(nodeId, s, data[s]);
+		}
+	}
+}
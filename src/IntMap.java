@@ -0,0 +1,98 @@
+package datanetwork;
+
+/**
+ * <p>A small open addressing map from primitive int keys, such as node ids, to values.</p>
+ * <p>Lookups never allocate or box their key.  Writers copy the table and publish the copy, so {@link #get(int)} can be called
+ * from the receiving thread while the sketch adds or removes entries.  Writes are expected to be rare compared to reads.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public class IntMap<V> {
+	private static final int FREE = 0, USED = 1;
+
+	private static class Table {
+		final int[] keys;
+		final byte[] states;
+		final Object[] values;
+		int size;
+
+		Table(int capacity) {
+			keys = new int[capacity];
+			states = new byte[capacity];
+			values = new Object[capacity];
+		}
+	}
+
+	private volatile Table table = new Table(16);
+
+	/**
+	 * Returns the value mapped to the key.
+	 * @param key the key to look up.
+	 * @return the value, or null if the key is not mapped.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		Table t = table;
+		int mask = t.keys.length - 1;
+		for(int i = mix(key) & mask;t.states[i] != FREE;i = (i + 1) & mask) {
+			if(t.keys[i] == key) return (V) t.values[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Maps a value to a key, replacing any previous value.
+	 * @param key the key.
+	 * @param value the value, or null to remove the key.
+	 */
+	public synchronized void put(int key, V value) {
+		Table t = table;
+		int capacity = t.keys.length;
+		while(capacity < (t.size + 1) * 2) capacity *= 2;
+		Table copy = new Table(capacity);
+		for(int i = 0;i < t.keys.length;i++) {
+			if(t.states[i] == USED && t.keys[i] != key) insert(copy, t.keys[i], t.values[i]);
+		}
+		if(value != null) insert(copy, key, value);
+		table = copy;
+	}
+
+	/**
+	 * Removes the key from the map.
+	 * @param key the key to remove.
+	 */
+	public void remove(int key) {
+		put(key, null);
+	}
+
+	/**
+	 * Returns the number of keys in the map.
+	 * @return the number of keys.
+	 */
+	public int size() {
+		return table.size;
+	}
+
+	/**
+	 * Removes every key from the map.
+	 */
+	public synchronized void clear() {
+		table = new Table(16);
+	}
+
+	private static void insert(Table t, int key, Object value) {
+		int mask = t.keys.length - 1;
+		int i = mix(key) & mask;
+		while(t.states[i] != FREE) i = (i + 1) & mask;
+		t.keys[i] = key;
+		t.states[i] = USED;
+		t.values[i] = value;
+		t.size++;
+	}
+
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,21 @@
+package datanetwork;
+
+/**
+ * <p>Receives the data of the nodes, for code that would rather register a callback than implement dnEvent in the sketch.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see DNConnection#onNodeData(NodeListener listener)
+ */
+
+public interface NodeListener {
+
+	/**
+	 * Called with the data of a node as it arrives.
+	 * The array is reused for the node's next data, so copy the values that must be kept.
+	 *
+	 * @param nodeId the ID of the node.
+	 * @param data the value of each slot of the node.
+	 */
+	public void onNodeData(int nodeId, float[] data);
+}
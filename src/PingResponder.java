@@ -13,13 +13,13 @@ import java.util.Date;
  *
  * @version 002
  * @author Vincent de Belleval
- * @see OSCListener
+ * @see OSCViewListener
  * @see OSCPortIn
  * @see OSCPortOut
  * @see DNConnection
  */
 
-public class PingResponder implements OSCListener {
+public class PingResponder implements OSCViewListener {
 	OSCPortIn in;
 	OSCPortOut out;
 	OSCMessage pong;
@@ -36,30 +36,33 @@ public class PingResponder implements OSCListener {
 		this.name = name;
 		
 		Object[] arg = {in.getPort(), name};
-		pong = new OSCMessage("/pong", arg);
+		pong = new OSCMessage("/pong", arg).freeze();
 		
-		in.addListener(this);
+		in.setPriority(DNConnection.PING, this);
    	}
 
 	/**
-	 * Recieves OSCMessages from the listeners on OSCPortIn.  This method is inherited from the {@link OSCListener} interface.
-	 * As soon as the message's address is "/ping" it sends a messge to the server with the "/pong" reply. 
+	 * Recieves the "/ping" messages on the OSCPortIn's receiving thread, ahead of the queued messages.  This method is inherited from the {@link OSCViewListener} interface.
+	 * It sends the pre-encoded "/pong" reply to the server, ahead of any message waiting to be sent.
+	 * The ping is not consumed, so it is then queued and the DNConnection still sees it in order.
 	 * 
-	 * @param message the recieved OSCMessage.
+	 * @param view the recieved message, decoded in place.
+	 * @return false.
 	*/
-   	public void acceptMessage(OSCMessage message) {
+   	public boolean acceptView(OSCMessageView view) {
 		//check if we have receive on the right port and are addressed correctly
 		
-       	if(message.getAddress().equals("/ping") && (int)message.getArgumentFloat(0) == in.getPort()) {
-			out.send(pong);
+       	if(view.getAddressId() == DNConnection.PING && view.getArgumentCount() > 0 && view.getInt(0) == in.getPort()) {
+			out.sendNow(pong);
 	 	}
+		return false;
 	}	
 	
 	/**
-	 * Removes the PingResponder from the OSCPortIn listeners.  Called when {@link DNConnection#unregister()} is called.
+	 * Stops answering the pings of the OSCPortIn.  Called when {@link DNConnection#unregister()} is called.
 	 */
    	public void removePingResponder() {
-		in.removeListener(this);
+		in.setPriority(DNConnection.PING, null);
    	}
 
 }
\ No newline at end of file
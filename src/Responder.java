@@ -21,6 +21,7 @@ import datanetwork.javaosc.*;
 public class Responder implements OSCListener {
 	OSCMessage msg;
    	OSCMessage rsp;
+	int rspId;	//id of the response's address in the port's symbol table
 	OSCPortIn in;
 	OSCPortOut out;
 	
@@ -42,10 +43,12 @@ public class Responder implements OSCListener {
 	public Responder(OSCPortIn in, OSCPortOut out, OSCMessage msg, OSCMessage rsp) {
 		this.in = in;
 		this.out = out;
-		this.msg = msg;
+		this.msg = msg.freeze();	//retried up to 10 times, encode it only once
 		this.rsp = rsp;
+		this.rspId = in.getSymbolTable().lookup(rsp.getAddress());
 		
-		in.addListener(this);
+		in.addListener(rsp.getAddress(), this);
+		in.addListener("/error", this);
 		responded = false;
 
 		timer = new Thread(new Runnable() {
@@ -78,17 +81,26 @@ public class Responder implements OSCListener {
   	 * @param message OSCMessage received on a OSCPortIn listener.
 	 */
    	public void acceptMessage(OSCMessage message) {	
-       	if(message.getAddress().equals(rsp.getAddress()) || message.getAddress().equals("/error")) {
+		int id = message.getAddressId();
+		boolean matches;
+		if(id >= 0 && rspId >= 0) matches = id == rspId || id == DNConnection.ERROR;
+		else matches = message.getAddress().equals(rsp.getAddress()) || message.getAddress().equals("/error");
+       	if(matches) {
 			try {			
 				responded = true;
 				timer.interrupt();
-				in.removeListener(this);
+				removeListener();
 			} catch(SecurityException e) {
 				System.err.println("DataNetwork error: cannot shut down Responder thread");
 			}
 	 	}
 	}
 	
+	private void removeListener() {
+		in.removeListener(rsp.getAddress(), this);
+		in.removeListener("/error", this);
+	}
+	
 	private void sendMsg() {
 		out.send(msg);
 	}
@@ -103,7 +115,7 @@ public class Responder implements OSCListener {
 	
    	private void timeout() {
 		timer.interrupt();
-		in.removeListener(this);
+		removeListener();
 		System.err.println("Error receiving response from server for " + msg.getAddress());
    	}
 
@@ -0,0 +1,21 @@
+package datanetwork;
+
+/**
+ * <p>Receives the value of one slot of a float node.</p>
+ *
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see DNConnection#subscribeSlot(int nodeId, int slotId, SlotListener listener)
+ */
+
+public interface SlotListener {
+
+	/**
+	 * Called with the value of the slot whenever the node's data or the slot's data arrives.
+	 *
+	 * @param nodeId the ID of the node.
+	 * @param slotId the ID of the slot.
+	 * @param value the slot's value.
+	 */
+	public void onSlotData(int nodeId, int slotId, float value);
+}
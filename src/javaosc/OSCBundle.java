@@ -19,9 +19,14 @@ public class OSCBundle extends OSCPacket {
 
 	public static final BigInteger SECONDS_FROM_1900_to_1970 =
 		new BigInteger("2208988800");
+	private static final long EPOCH_OFFSET = SECONDS_FROM_1900_to_1970.longValue();	//in seconds, as a long for the time tag conversions
+	
+	/** The time tag meaning "immediately". */
+	public static final long IMMEDIATE = 1;
 		
 	protected Date timestamp;
 	protected Vector<OSCPacket> packets;
+	private long computedStamp;
 
 	public OSCBundle() {
 		this(null, new Date(System.currentTimeMillis()));
@@ -53,10 +58,32 @@ public class OSCBundle extends OSCPacket {
 	
 	public void setTimestamp(Date timestamp) {
 		this.timestamp = timestamp;
+		invalidate();
 	}
 	
 	public void addPacket(OSCPacket packet) {
 		packets.add(packet);
+		invalidate();
+	}
+	
+	/**
+	 * The bundle's stamp also grows when one of its packets is modified, so that its cached bytes are dropped too.
+	 */
+	protected long stamp() {
+		long stamp = version;
+		for(int i = 0;i < packets.size();i++) {
+			stamp += packets.get(i).stamp();
+		}
+		return stamp;
+	}
+	
+	public boolean isByteArrayComputed() {
+		return isByteArrayComputed && computedStamp == stamp();
+	}
+	
+	protected void computeByteArray() {
+		super.computeByteArray();
+		computedStamp = stamp();
 	}
 	
 	public OSCPacket[] getPackets() {
@@ -65,21 +92,61 @@ public class OSCBundle extends OSCPacket {
 		return packetArray;
 	}
 
-	protected void computeTimeTagByteArray(OSCJavaToByteArrayConverter stream) {
-		if ((null == timestamp) || (timestamp == new Date(System.currentTimeMillis()))) {
-			stream.write((int) 0);
-			stream.write((int) 1);
-			return;
-		}
-		
-		long millisecs = timestamp.getTime();
-		long secsSince1970 = (long) (millisecs / 1000);
-		long secs = secsSince1970 + SECONDS_FROM_1900_to_1970.longValue();
+	/**
+	 * Converts a date to a 64 bit NTP time tag: seconds since 1900 in the high 32 bits, fractions of a second in the low 32 bits.
+	 * @param date the date to convert, null meaning "immediately".
+	 * @return the time tag.
+	 */
+	public static long dateToTimeTag(Date date) {
+		if (null == date)
+			return IMMEDIATE;
+		long millisecs = date.getTime();
+		long secs = (millisecs / 1000) + EPOCH_OFFSET;
 		//the next line was cribbed from jakarta commons-net's NTP TimeStamp code
 		long fraction = ((millisecs % 1000) * 0x100000000L) / 1000;
-		
-		stream.write((int) secs);
-		stream.write((int) fraction);
+		return (secs << 32) | (fraction & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Converts a 64 bit NTP time tag to a date.
+	 * @param timeTag the time tag to convert.
+	 * @return the date, the current time for {@link #IMMEDIATE}.
+	 */
+	public static Date timeTagToDate(long timeTag) {
+		if (timeTag == IMMEDIATE)
+			return new Date(System.currentTimeMillis());
+		long secsSince1900 = timeTag >>> 32;
+		// the seconds wrap around in 2036: like NTP (RFC 4330), read the ones without their highest bit as the next era
+		if ((secsSince1900 & 0x80000000L) == 0) secsSince1900 += 0x100000000L;
+		long secsSince1970 = secsSince1900 - EPOCH_OFFSET;
+		if (secsSince1970 < 0) secsSince1970 = 0; // no point maintaining times in the distant past
+		// round to the nearest millisecond so that dates survive a round trip
+		long fraction = ((timeTag & 0xFFFFFFFFL) * 1000 + 0x80000000L) >>> 32;
+		return new Date((secsSince1970 * 1000) + fraction);
+	}
+	
+	/**
+	 * Computes the bundle's 64 bit NTP time tag.
+	 * @return the time tag, {@link #IMMEDIATE} if the bundle has no timestamp.
+	 */
+	protected long computeTimeTag() {
+		return dateToTimeTag(timestamp);
+	}
+
+	protected void computeTimeTagByteArray(OSCJavaToByteArrayConverter stream) {
+		long timeTag = computeTimeTag();
+		stream.write((int) (timeTag >>> 32));
+		stream.write((int) timeTag);
+	}
+	
+	protected void computeByteBuffer(OSCByteBufferEncoder encoder) {
+		encoder.write("#bundle");
+		encoder.write(computeTimeTag());
+		for(OSCPacket packet : packets) {
+			int sizePosition = encoder.beginBundleElement();
+			packet.writeTo(encoder);
+			encoder.endBundleElement(sizePosition);
+		}
 	}
 	
 	protected void computeByteArray(OSCJavaToByteArrayConverter stream) {
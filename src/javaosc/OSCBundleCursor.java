@@ -0,0 +1,109 @@
+package datanetwork.javaosc;
+
+import datanetwork.javaosc.utility.OSCByteBufferDecoder;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Walks the elements of an encoded {@link OSCBundle} in place.</p>
+ * <p>Each call to {@link #next()} moves the cursor to the next element and exposes it as an offset and a length in the original
+ * buffer: nothing is copied.  Message elements are read by wrapping an {@link OSCMessageView} around that window, and nested bundles
+ * are walked with the cursor returned by {@link #enterBundle()}.  Cursors are recycled like views and only valid until the
+ * packet has been dispatched.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see datanetwork.javaosc.utility.OSCByteBufferDecoder#decodeBundle(ByteBuffer, int, int)
+ */
+
+public class OSCBundleCursor {
+
+	protected ByteBuffer buffer;
+	protected int start, end, position;
+	protected int elementOffset, elementLength;
+	protected long timeTag;
+	private OSCBundleCursor nested;
+
+	/**
+	 * Points the cursor before the first element of the bundle encoded between <code>offset</code> and <code>offset + length</code>.
+	 * @param buffer the buffer holding the encoded bundle.
+	 * @param offset the index of the first byte of the bundle.
+	 * @param length the length of the encoded bundle in bytes.
+	 * @return false if the bytes are not a bundle.
+	 */
+	public boolean wrap(ByteBuffer buffer, int offset, int length) {
+		if(length < 16 || !OSCByteBufferDecoder.isBundle(buffer, offset, length)) return false;
+		this.buffer = buffer;
+		start = offset;
+		end = offset + length;
+		timeTag = buffer.getLong(offset + 8);
+		position = offset + 16;
+		elementOffset = position;
+		elementLength = 0;
+		return true;
+	}
+
+	/**
+	 * Moves the cursor to the next element of the bundle.
+	 * @return false once every element has been visited.
+	 * @throws IllegalArgumentException if the element's size runs past the end of the bundle.
+	 */
+	public boolean next() {
+		if(position + 4 > end) return false;
+		int size = buffer.getInt(position);
+		if(size < 0 || position + 4 + size > end)
+			throw new IllegalArgumentException("malformed OSC bundle: element of " + size + " bytes at byte " + (position - start) + " of " + (end - start));
+		elementOffset = position + 4;
+		elementLength = size;
+		position = elementOffset + size;
+		return true;
+	}
+
+	/**
+	 * Returns the bundle's 64 bit NTP time tag.
+	 * @see OSCBundle#timeTagToDate(long)
+	 * @return the time tag.
+	 */
+	public long getTimeTag() {
+		return timeTag;
+	}
+
+	/**
+	 * Returns the buffer the cursor walks.
+	 * @return the wrapped buffer.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Returns the index, in the wrapped buffer, of the first byte of the current element.
+	 * @return the offset of the current element.
+	 */
+	public int getElementOffset() {
+		return elementOffset;
+	}
+
+	/**
+	 * Returns the length in bytes of the current element.
+	 * @return the length of the current element.
+	 */
+	public int getElementLength() {
+		return elementLength;
+	}
+
+	/**
+	 * Is the current element itself a bundle?
+	 * @return true if the current element is a bundle.
+	 */
+	public boolean isElementBundle() {
+		return OSCByteBufferDecoder.isBundle(buffer, elementOffset, elementLength);
+	}
+
+	/**
+	 * Returns a cursor over the current element, which has to be a bundle.  The same nested cursor is reused for every element.
+	 * @return the nested cursor, or null if the current element is not a bundle.
+	 */
+	public OSCBundleCursor enterBundle() {
+		if(nested == null) nested = new OSCBundleCursor();
+		return nested.wrap(buffer, elementOffset, elementLength) ? nested : null;
+	}
+}
@@ -0,0 +1,165 @@
+package datanetwork.javaosc;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * <p>A transport over a {@link java.nio.channels.DatagramChannel}.</p>
+ * <p>Until it is started the channel is blocking and only used to send, which is how an {@link OSCPortOut} uses it.
+ * Once started, the channel is switched to non-blocking mode and registered with an {@link OSCSelector}, whose single thread
+ * reads it into a shared direct buffer along with every other channel registered with the same selector.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see OSCSocketTransport
+ */
+
+public class OSCChannelTransport implements OSCTransport, OSCSelector.Handler {
+
+	protected DatagramChannel channel;
+	protected OSCSelector selector;
+	protected OSCReceiver receiver;
+	private boolean reusePort;
+
+	/**
+	 * Opens a channel bound to the port, to be read by the shared {@link OSCSelector#getDefault()} once started.
+	 * @param port the local port, or 0 for any free port.
+	 */
+	public OSCChannelTransport(int port) throws IOException {
+		this(port, null);
+	}
+
+	/**
+	 * Opens a channel bound to the port, to be read by <code>selector</code> once started.
+	 * @param port the local port, or 0 for any free port.
+	 * @param selector the selector to register with, or null for the shared {@link OSCSelector#getDefault()}.
+	 */
+	public OSCChannelTransport(int port, OSCSelector selector) throws IOException {
+		this(port, selector, false);
+	}
+
+	/**
+	 * Opens a channel bound to the port, optionally sharing the port with other channels.
+	 * @param port the local port, or 0 for any free port.
+	 * @param selector the selector to register with, or null for the shared {@link OSCSelector#getDefault()}.
+	 * @param reusePort true to set SO_REUSEPORT, so that several channels can bind the same port and the system spreads the datagrams among them.
+	 * @see #isReusePort()
+	 */
+	public OSCChannelTransport(int port, OSCSelector selector, boolean reusePort) throws IOException {
+		this.selector = selector;
+		channel = DatagramChannel.open();
+		try {
+			if(reusePort) this.reusePort = setReusePort(channel);
+			channel.socket().bind(new InetSocketAddress(port));
+		} catch(IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public synchronized void start(OSCReceiver receiver) throws IOException {
+		this.receiver = receiver;
+		if(selector == null) selector = OSCSelector.getDefault();
+		channel.configureBlocking(false);
+		selector.register(this);
+	}
+
+	/**
+	 * Sends a datagram.  Once the transport is started the channel is non-blocking, and a datagram that does not fit
+	 * in the socket's send buffer is dropped.  A connected channel ignores the target and writes to the address it is connected to.
+	 */
+	public void send(ByteBuffer packet, SocketAddress target) throws IOException {
+		if(channel.isConnected()) channel.write(packet);
+		else channel.send(packet, target);
+	}
+
+	/**
+	 * Connects the channel to a single remote address, so that sending skips the security check and address resolution
+	 * done for every unconnected datagram.  A connected channel only receives datagrams from that address.
+	 * A channel already connected is connected again to the new address.
+	 * @param target the address to send to.
+	 */
+	public void connect(SocketAddress target) throws IOException {
+		if(channel.isConnected()) channel.disconnect();
+		channel.connect(target);
+	}
+
+	/**
+	 * Returns true if the channel is connected to a single remote address.
+	 * @return true if connected.
+	 */
+	public boolean isConnected() {
+		return channel.isConnected();
+	}
+
+	public int getLocalPort() {
+		return channel.socket().getLocalPort();
+	}
+
+	/**
+	 * Returns true if SO_REUSEPORT was set on the channel.  It is only available from Java 9, on systems that support it such as Linux.
+	 * @return true if the port can be shared with other channels.
+	 */
+	public boolean isReusePort() {
+		return reusePort;
+	}
+
+	/**
+	 * Sets SO_REUSEPORT through reflection, as the option is missing from the Java versions Processing runs on.
+	 */
+	private static boolean setReusePort(DatagramChannel channel) {
+		try {
+			Object option = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+			Method setOption = DatagramChannel.class.getMethod("setOption", Class.forName("java.net.SocketOption"), Object.class);
+			setOption.invoke(channel, option, Boolean.TRUE);
+			return true;
+		} catch(Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the channel, for the selector.
+	 * @return the transport's channel.
+	 */
+	public DatagramChannel getChannel() {
+		return channel;
+	}
+
+	public SelectableChannel getSelectableChannel() {
+		return channel;
+	}
+
+	public int getInterestOps() {
+		return SelectionKey.OP_READ;
+	}
+
+	/**
+	 * Reads every datagram waiting on the channel.  Called by the selector's thread.
+	 * @param buffer the selector's receive buffer.
+	 */
+	public void ready(SelectionKey key, ByteBuffer buffer) throws IOException {
+		if(!key.isReadable()) return;
+		while(true) {
+			buffer.clear();
+			if(channel.receive(buffer) == null) return;
+			receiver.receive(buffer, 0, buffer.position());
+		}
+	}
+
+	public void close() {
+		try {
+			channel.close();
+		} catch(IOException e) {
+		}
+	}
+
+	public String toString() {
+		return "UDP port " + getLocalPort();
+	}
+}
@@ -0,0 +1,124 @@
+package datanetwork.javaosc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Recognizes the packets that reach a port through two of its transports, such as a message the server sends both to the client
+ * and to a multicast group the client has joined.</p>
+ * <p>The filter remembers a hash of the last packets and the transport each came from, in a table indexed by the hash.  A packet identical to one recently received
+ * through another transport is its copy and is reported as a duplicate, once; the same packet repeated on one transport, such as a
+ * sensor sending the same value twice, is not.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see OSCPortIn#addTransport(OSCTransport)
+ */
+
+public class OSCDuplicateFilter {
+
+	/** The number of packets remembered by default. */
+	public static final int DEFAULT_WINDOW = 256;
+	/** How long a packet is remembered by default, in milliseconds. */
+	public static final long DEFAULT_TIMEOUT = 1000;
+
+	private static final int WAYS = 4;	//the entries a hash can be kept in
+
+	// the entries are grouped in sets of WAYS, and a packet is only looked for in the set its hash picks
+	protected final long[] hashes;
+	protected final int[] lengths;
+	protected final int[] sources;
+	protected final long[] times;
+	protected final boolean[] matched;
+	protected final Object[] locks;		//one for each set
+	protected final int mask;
+	protected final long timeout;
+	private final AtomicLong duplicates = new AtomicLong();
+
+	/**
+	 * Creates a filter remembering {@value #DEFAULT_WINDOW} packets for {@value #DEFAULT_TIMEOUT} milliseconds.
+	 */
+	public OSCDuplicateFilter() {
+		this(DEFAULT_WINDOW, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Creates a filter.
+	 * @param window the number of packets remembered, rounded up to a power of two.
+	 * @param timeoutMillis how long a packet is remembered.
+	 */
+	public OSCDuplicateFilter(int window, long timeoutMillis) {
+		int sets = Integer.highestOneBit(Math.max(1, (window + WAYS - 1) / WAYS));
+		if(sets * WAYS < window) sets <<= 1;
+		int size = sets * WAYS;
+		hashes = new long[size];
+		lengths = new int[size];
+		sources = new int[size];
+		times = new long[size];
+		matched = new boolean[size];
+		locks = new Object[sets];
+		for(int i = 0;i < sets;i++) locks[i] = new Object();
+		mask = sets - 1;
+		timeout = timeoutMillis * 1000000L;
+		for(int i = 0;i < size;i++) lengths[i] = -1;
+	}
+
+	/**
+	 * Checks a packet against the packets recently received through the other transports, and remembers it.
+	 * The packet is hashed without locking; only the few entries its hash picks are searched, under a lock of their own,
+	 * so the transports' threads rarely wait for each other.
+	 * @param source the index of the transport the packet came through.
+	 * @param bytes the buffer holding the packet.
+	 * @param offset the index of the first byte of the packet.
+	 * @param length the length of the packet in bytes.
+	 * @return true if the packet is new, false if it is the copy of a packet received through another transport.
+	 */
+	public boolean accept(int source, ByteBuffer bytes, int offset, int length) {
+		long hash = hash(bytes, offset, length);
+		int set = (int) (hash ^ (hash >>> 32)) & mask;
+		int base = set * WAYS;
+		long now = System.nanoTime();
+		synchronized(locks[set]) {
+			int oldest = base;
+			for(int i = base;i < base + WAYS;i++) {
+				if(hashes[i] == hash && lengths[i] == length && sources[i] != source && !matched[i] && now - times[i] < timeout) {
+					matched[i] = true;
+					duplicates.incrementAndGet();
+					return false;
+				}
+				if(lengths[i] < 0 || times[i] - times[oldest] < 0) oldest = i;
+				if(lengths[oldest] < 0) break;
+			}
+			hashes[oldest] = hash;
+			lengths[oldest] = length;
+			sources[oldest] = source;
+			times[oldest] = now;
+			matched[oldest] = false;
+		}
+		return true;
+	}
+
+	/**
+	 * 64 bit FNV-1a, taking the packet eight bytes at a time.  OSC packets are padded to four bytes, so at most one int is left over.
+	 */
+	private static long hash(ByteBuffer bytes, int offset, int length) {
+		long hash = 0xcbf29ce484222325L;
+		int i = 0;
+		for(;i + 8 <= length;i += 8) {
+			hash ^= bytes.getLong(offset + i);
+			hash *= 0x100000001b3L;
+		}
+		for(;i < length;i++) {
+			hash ^= bytes.get(offset + i) & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return hash ^ (hash >>> 29);
+	}
+
+	/**
+	 * Returns the number of duplicates recognized since the filter was created.
+	 * @return the number of duplicate packets.
+	 */
+	public long getDuplicates() {
+		return duplicates.get();
+	}
+}
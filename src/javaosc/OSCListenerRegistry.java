@@ -0,0 +1,297 @@
+package datanetwork.javaosc;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>The {@link OSCListener}s of a port indexed by the address or OSC address pattern they listen to.</p>
+ * <p>Each pattern is split into its parts between slashes and compiled once into a trie: plain parts are compared as they are,
+ * and parts with wildcards (<code>?</code>, <code>*</code>, <code>[a-z]</code>, <code>[!abc]</code>, <code>{foo,bar}</code>)
+ * are matched by a compiled {@link Part}.  The listeners matching an address are found by walking the trie once, and then kept
+ * for that address until the listeners change, so dispatching a message only costs as much as the listeners it reaches.</p>
+ * <p>The trie is copied on write, so it is read by the dispatching threads without locking.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see OSCPortIn#addListener(String, OSCListener)
+ */
+
+public class OSCListenerRegistry {
+
+	private static final OSCListener[] NONE = new OSCListener[0];
+	/** The number of addresses whose listeners are kept, beyond which they are all looked up again. */
+	private static final int CACHE_SIZE = 1024;
+
+	/**
+	 * A node of the trie: the listeners of the pattern ending here, and the nodes of the following parts.
+	 */
+	private static class Node {
+		final Part part;
+		final Node[] children;
+		final OSCListener[] listeners;
+
+		Node(Part part, Node[] children, OSCListener[] listeners) {
+			this.part = part;
+			this.children = children;
+			this.listeners = listeners;
+		}
+	}
+
+	private volatile Node root = new Node(null, new Node[0], NONE);
+	private volatile int size;
+	//replaced along with the trie, and always written after it, so a lookup never caches the listeners of an older trie in a newer cache
+	private volatile ConcurrentHashMap<String, OSCListener[]> cache = new ConcurrentHashMap<String, OSCListener[]>();
+
+	/**
+	 * Adds a listener to the messages whose address matches a pattern.
+	 * @param pattern an OSC address or address pattern, such as /data/node or /info/*.
+	 * @param listener the listener to add.
+	 */
+	public synchronized void add(String pattern, OSCListener listener) {
+		root = add(root, split(pattern), 0, listener);
+		size++;
+		cache = new ConcurrentHashMap<String, OSCListener[]>();
+	}
+
+	/**
+	 * Removes a listener added with the same pattern.
+	 * @param pattern the pattern the listener was added with.
+	 * @param listener the listener to remove.
+	 */
+	public synchronized void remove(String pattern, OSCListener listener) {
+		Node updated = remove(root, split(pattern), 0, listener);
+		if(updated == root) return;
+		root = updated;
+		size--;
+		cache = new ConcurrentHashMap<String, OSCListener[]>();
+	}
+
+	/**
+	 * Returns true if no listener is registered.
+	 * @return true if the registry is empty.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the listeners whose pattern matches an address.
+	 * @param address the address of a message.
+	 * @return the matching listeners, in the order they were added for each pattern.  The array must not be modified.
+	 */
+	public OSCListener[] lookup(String address) {
+		if(size == 0) return NONE;
+		ConcurrentHashMap<String, OSCListener[]> c = cache;
+		OSCListener[] listeners = c.get(address);
+		if(listeners != null) return listeners;
+		ArrayList<OSCListener> matches = new ArrayList<OSCListener>();
+		match(root, address, 1, matches);
+		listeners = matches.isEmpty() ? NONE : matches.toArray(new OSCListener[matches.size()]);
+		if(c.size() >= CACHE_SIZE) c.clear();
+		c.put(address, listeners);
+		return listeners;
+	}
+
+	/**
+	 * Returns the listeners whose pattern matches the address of a message, without reading the address when no listener is registered.
+	 * @param view the message, decoded in place.
+	 * @return the matching listeners.  The array must not be modified.
+	 */
+	public OSCListener[] lookup(OSCMessageView view) {
+		if(size == 0) return NONE;
+		return lookup(view.getAddress());
+	}
+
+	/**
+	 * Collects the listeners of the patterns matching the address from <code>start</code> on, the beginning of a part.
+	 */
+	private static void match(Node node, String address, int start, ArrayList<OSCListener> matches) {
+		if(start > address.length()) {
+			for(OSCListener listener : node.listeners) {
+				if(!matches.contains(listener)) matches.add(listener);
+			}
+			return;
+		}
+		int end = address.indexOf('/', start);
+		if(end < 0) end = address.length();
+		for(Node child : node.children) {
+			if(child.part.matches(address, start, end)) match(child, address, end + 1, matches);
+		}
+	}
+
+	private static Node add(Node node, String[] parts, int depth, OSCListener listener) {
+		if(depth == parts.length) {
+			OSCListener[] listeners = new OSCListener[node.listeners.length + 1];
+			System.arraycopy(node.listeners, 0, listeners, 0, node.listeners.length);
+			listeners[node.listeners.length] = listener;
+			return new Node(node.part, node.children, listeners);
+		}
+		Node[] children = node.children;
+		for(int i = 0;i < children.length;i++) {
+			if(children[i].part.pattern.equals(parts[depth])) {
+				Node[] copy = children.clone();
+				copy[i] = add(children[i], parts, depth + 1, listener);
+				return new Node(node.part, copy, node.listeners);
+			}
+		}
+		Node[] copy = new Node[children.length + 1];
+		System.arraycopy(children, 0, copy, 0, children.length);
+		copy[children.length] = add(new Node(new Part(parts[depth]), new Node[0], NONE), parts, depth + 1, listener);
+		return new Node(node.part, copy, node.listeners);
+	}
+
+	/**
+	 * Returns the node without the listener, or the same node if the listener was not found.
+	 */
+	private static Node remove(Node node, String[] parts, int depth, OSCListener listener) {
+		if(depth == parts.length) {
+			for(int i = 0;i < node.listeners.length;i++) {
+				if(node.listeners[i] != listener) continue;
+				OSCListener[] listeners = new OSCListener[node.listeners.length - 1];
+				System.arraycopy(node.listeners, 0, listeners, 0, i);
+				System.arraycopy(node.listeners, i + 1, listeners, i, listeners.length - i);
+				return new Node(node.part, node.children, listeners);
+			}
+			return node;
+		}
+		Node[] children = node.children;
+		for(int i = 0;i < children.length;i++) {
+			if(!children[i].part.pattern.equals(parts[depth])) continue;
+			Node child = remove(children[i], parts, depth + 1, listener);
+			if(child == children[i]) return node;
+			Node[] copy;
+			if(child.listeners.length == 0 && child.children.length == 0) {
+				copy = new Node[children.length - 1];
+				System.arraycopy(children, 0, copy, 0, i);
+				System.arraycopy(children, i + 1, copy, i, copy.length - i);
+			} else {
+				copy = children.clone();
+				copy[i] = child;
+			}
+			return new Node(node.part, copy, node.listeners);
+		}
+		return node;
+	}
+
+	private static String[] split(String pattern) {
+		if(pattern.length() == 0 || pattern.charAt(0) != '/') throw new IllegalArgumentException("OSC address patterns start with '/': " + pattern);
+		return pattern.substring(1).split("/", -1);
+	}
+
+	/**
+	 * One part of an address pattern, between two slashes, compiled into tokens.
+	 */
+	protected static class Part {
+		private static final int CHAR = 0, ANY = 1, STAR = 2, SET = 3, NOT_SET = 4, CHOICE = 5;
+
+		final String pattern;
+		final boolean isLiteral;
+		final int[] kinds;
+		final char[] chars;			//the character of a CHAR token
+		final char[][] ranges;		//pairs of bounds for a SET token
+		final String[][] choices;	//the alternatives of a CHOICE token
+
+		Part(String pattern) {
+			this.pattern = pattern;
+			int n = pattern.length();
+			int[] k = new int[n];
+			char[] c = new char[n];
+			char[][] r = new char[n][];
+			String[][] s = new String[n][];
+			int count = 0;
+			boolean literal = true;
+			for(int i = 0;i < n;i++) {
+				char ch = pattern.charAt(i);
+				if(ch == '?') {
+					k[count] = ANY;
+				} else if(ch == '*') {
+					k[count] = STAR;
+				} else if(ch == '[' && pattern.indexOf(']', i) > i) {
+					int close = pattern.indexOf(']', i + 1);
+					int from = i + 1;
+					k[count] = SET;
+					if(from < close && pattern.charAt(from) == '!') {
+						k[count] = NOT_SET;
+						from++;
+					}
+					StringBuilder bounds = new StringBuilder();
+					for(int j = from;j < close;j++) {
+						if(j + 2 < close && pattern.charAt(j + 1) == '-') {
+							bounds.append(pattern.charAt(j)).append(pattern.charAt(j + 2));
+							j += 2;
+						} else {
+							bounds.append(pattern.charAt(j)).append(pattern.charAt(j));
+						}
+					}
+					r[count] = bounds.toString().toCharArray();
+					i = close;
+				} else if(ch == '{' && pattern.indexOf('}', i) > i) {
+					int close = pattern.indexOf('}', i);
+					k[count] = CHOICE;
+					s[count] = pattern.substring(i + 1, close).split(",", -1);
+					i = close;
+				} else {
+					k[count] = CHAR;
+					c[count] = ch;
+					count++;
+					continue;
+				}
+				literal = false;
+				count++;
+			}
+			isLiteral = literal;
+			kinds = new int[count];
+			System.arraycopy(k, 0, kinds, 0, count);
+			chars = c;
+			ranges = r;
+			choices = s;
+		}
+
+		/**
+		 * Does the part match the characters of the address from <code>start</code> to <code>end</code>?
+		 */
+		boolean matches(String address, int start, int end) {
+			if(isLiteral) return end - start == pattern.length() && address.regionMatches(start, pattern, 0, end - start);
+			return matches(0, address, start, end);
+		}
+
+		private boolean matches(int token, String address, int position, int end) {
+			while(token < kinds.length) {
+				switch(kinds[token]) {
+				case CHAR:
+					if(position >= end || address.charAt(position) != chars[token]) return false;
+					position++;
+					break;
+				case ANY:
+					if(position >= end) return false;
+					position++;
+					break;
+				case STAR:
+					for(int p = end;p >= position;p--) {
+						if(matches(token + 1, address, p, end)) return true;
+					}
+					return false;
+				case SET:
+				case NOT_SET:
+					if(position >= end || inRanges(ranges[token], address.charAt(position)) != (kinds[token] == SET)) return false;
+					position++;
+					break;
+				case CHOICE:
+					for(String choice : choices[token]) {
+						int length = choice.length();
+						if(position + length <= end && address.regionMatches(position, choice, 0, length) && matches(token + 1, address, position + length, end)) return true;
+					}
+					return false;
+				}
+				token++;
+			}
+			return position == end;
+		}
+
+		private static boolean inRanges(char[] bounds, char ch) {
+			for(int i = 0;i < bounds.length;i += 2) {
+				if(ch >= bounds[i] && ch <= bounds[i + 1]) return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package datanetwork.javaosc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import datanetwork.javaosc.utility.OSCByteBufferEncoder;
+
+/**
+ * <p>A transport that passes packets between ports of the same JVM without going through the network stack.</p>
+ * <p>Loopback transports bind virtual ports of their own, separate from the system's UDP ports.  A packet sent to a port is copied
+ * into one of the receiving transport's pooled buffers and queued on a lock-free queue, then dispatched by the receiving transport's thread.
+ * As with UDP, sending never waits: a packet sent to a port nobody is bound to, larger than a datagram, or arriving while all the
+ * receiver's buffers are queued is dropped.  The host of the target address is ignored, only its port is used.</p>
+ * <p>A transport created without a thread only dispatches when {@link #drain()} is called, which makes for deterministic tests.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public class OSCLoopbackTransport implements OSCTransport, Runnable {
+
+	/** The number of packets a transport queues by default. */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private static final ConcurrentHashMap<Integer, OSCLoopbackTransport> ports = new ConcurrentHashMap<Integer, OSCLoopbackTransport>();
+	private static final AtomicInteger nextPort = new AtomicInteger(49152);
+
+	protected final int port;
+	protected final boolean threaded;
+	protected OSCReceiver receiver;
+	protected Thread thread;
+	private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean isOpen = true;
+
+	/**
+	 * Binds a loopback port, dispatched by a thread of its own once started.
+	 * @param port the port, or 0 for any free port.
+	 */
+	public OSCLoopbackTransport(int port) throws IOException {
+		this(port, DEFAULT_CAPACITY, true);
+	}
+
+	/**
+	 * Binds a loopback port.
+	 * @param port the port, or 0 for any free port.
+	 * @param capacity the number of packets queued before the following ones are dropped.
+	 * @param threaded true to dispatch on a thread of the transport's own, false to only dispatch on {@link #drain()}.
+	 */
+	public OSCLoopbackTransport(int port, int capacity, boolean threaded) throws IOException {
+		if(port == 0) {
+			do {
+				port = nextPort.getAndIncrement();
+			} while(ports.putIfAbsent(port, this) != null);
+		} else if(ports.putIfAbsent(port, this) != null) {
+			throw new IOException("loopback port " + port + " is already bound");
+		}
+		this.port = port;
+		this.threaded = threaded;
+		for(int i = 0;i < capacity;i++) pool.add(ByteBuffer.allocate(1536));
+	}
+
+	public synchronized void start(OSCReceiver receiver) {
+		this.receiver = receiver;
+		if(!threaded || thread != null) return;
+		thread = new Thread(this, "OSCLoopbackTransport " + port);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void run() {
+		while(isOpen) {
+			if(drain() == 0) LockSupport.parkNanos(this, 100000000L);
+		}
+	}
+
+	/**
+	 * Dispatches the packets queued so far on the calling thread.
+	 * @return the number of packets dispatched.
+	 */
+	public int drain() {
+		int count = 0;
+		ByteBuffer packet;
+		while((packet = queue.poll()) != null) {
+			try {
+				if(receiver != null) receiver.receive(packet, 0, packet.limit());
+			} finally {
+				pool.add(packet);
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Queues a copy of the packet on the loopback port of the target.
+	 */
+	public void send(ByteBuffer packet, SocketAddress target) throws IOException {
+		int length = packet.remaining();
+		OSCLoopbackTransport destination = ports.get(((InetSocketAddress) target).getPort());
+		if(destination == null || !destination.isOpen || length > OSCByteBufferEncoder.MAX_DATAGRAM_SIZE) {
+			packet.position(packet.limit());
+			if(destination != null) destination.dropped.incrementAndGet();
+			return;
+		}
+		destination.offer(packet);
+	}
+
+	private void offer(ByteBuffer packet) {
+		ByteBuffer copy = pool.poll();
+		if(copy == null) {
+			packet.position(packet.limit());
+			dropped.incrementAndGet();
+			return;
+		}
+		if(copy.capacity() < packet.remaining()) copy = ByteBuffer.allocate(packet.remaining());
+		copy.clear();
+		copy.put(packet);
+		copy.flip();
+		queue.add(copy);
+		Thread t = thread;
+		if(t != null) LockSupport.unpark(t);
+	}
+
+	/**
+	 * Returns the number of packets sent to the port and dropped, because they were too large, the queue was full or the port closed.
+	 * @return the number of dropped packets.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public int getLocalPort() {
+		return port;
+	}
+
+	public void close() {
+		isOpen = false;
+		ports.remove(port, this);
+		Thread t = thread;
+		if(t != null) LockSupport.unpark(t);
+	}
+
+	public String toString() {
+		return "loopback port " + port;
+	}
+}
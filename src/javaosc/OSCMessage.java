@@ -1,11 +1,13 @@
 package datanetwork.javaosc;
 
 import datanetwork.javaosc.utility.*;
-import java.util.Enumeration;
-import java.util.Vector;
+import java.math.BigInteger;
+import java.util.Date;
 
 /**
  * <p>Defines OSCMessges and provides some methods to manipulate them.</p>
+ * <p>Arguments are stored by type tag: numbers are kept as primitives and only boxed when asked for through {@link #getArguments()} or {@link #getArgument(int)}.
+ * Use the typed accessors such as {@link #getInt(int)}, {@link #getFloat(int)} or {@link #copyFloats(float[], int)} to read them without boxing.</p>
  * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
  * <p>Based on Java OSC.
  * Copyright (C) 2003-2006, C. Ramakrishnan / Illposed Software.
@@ -15,14 +17,19 @@ import java.util.Vector;
 public class OSCMessage extends OSCPacket {
 
 	protected String address;
-	protected Vector<Object> arguments;
+	protected int addressId = -1;	//id of the address in the receiving port's OSCSymbolTable
+	protected char[] types;		//type tag of each argument, 0 for arguments that are not encoded
+	protected long[] values;	//raw bits of the numeric arguments
+	protected Object[] objects;	//strings, arrays and anything that is not a number
+	protected int argumentCount;
+	protected boolean frozen;
 	
 	/**
 	 * Create an empty OSC Message.
 	 * In order to send this osc message, you need to set the address and, perhaps, some arguments.
 	 */
 	public OSCMessage() {
-		arguments = new Vector<Object>();
+		this(null, null);
 	}
 	
 	/**
@@ -33,13 +40,14 @@ public class OSCMessage extends OSCPacket {
 	 */
 	public OSCMessage(String address, Object[] arguments) {
 		this.address = address;
+		int capacity = (null != arguments) ? Math.max(arguments.length, 4) : 4;
+		types = new char[capacity];
+		values = new long[capacity];
+		objects = new Object[capacity];
 		if(null != arguments) {
-			this.arguments = new Vector<Object>(arguments.length);
 			for (int i = 0; i < arguments.length; i++) {
-				this.arguments.add(arguments[i]);
+				addArgument(arguments[i]);
 			}
-		} else {
-			this.arguments = new Vector<Object>();
 		}
 	}
 	
@@ -56,7 +64,27 @@ public class OSCMessage extends OSCPacket {
 	 * @param anAddress the address to set to the OSCMessage.
 	 */
 	public void setAddress(String anAddress) {
+		setAddress(anAddress, -1);
+	}
+
+	/**
+	 * Sets the address of an OSCMessage along with its id in an {@link OSCSymbolTable}.  Used by the decoders.
+	 * @param anAddress the address to set to the OSCMessage.
+	 * @param anAddressId the id of the address, or -1 if it is unknown.
+	 */
+	public void setAddress(String anAddress, int anAddressId) {
+		checkNotFrozen();
 		address = anAddress;
+		addressId = anAddressId;
+		invalidate();
+	}
+
+	/**
+	 * Returns the id the address of a received message has in the receiving port's {@link OSCSymbolTable}.
+	 * @return the id of the address, or -1 if the address is not in the table or the message was not received.
+	 */
+	public int getAddressId() {
+		return addressId;
 	}
 	
 	/**
@@ -69,11 +97,33 @@ public class OSCMessage extends OSCPacket {
 	}
 	
 	/** 
+	 * Returns the number of arguments of the OSCMessage.  An array argument counts as one.
+	 * @return the number of arguments.
+	 */
+	public int getArgumentCount() {
+		return argumentCount;
+	}
+
+	/**
+	 * Returns the OSC type tag of the argument at the specified index: 'i', 'h', 'f', 'd', 's', 'c', 't', 'b', 'T', 'F', 'N', 'I' or '[' for an array.
+	 * @param i the index of the argument.
+	 * @return the argument's type tag, or 0 for an argument that will not be encoded.
+	 */
+	public char typeTagAt(int i) {
+		checkIndex(i);
+		return types[i];
+	}
+
+	/**
 	 * Returns all the OSCMessage arguments in an array.
 	 * @return all the message's arguments in an array.
 	 */
 	public Object[] getArguments() {
-		return arguments.toArray();
+		Object[] a = new Object[argumentCount];
+		for(int i = 0;i < argumentCount;i++) {
+			a[i] = getArgument(i);
+		}
+		return a;
 	}
 	
 	/** 
@@ -81,9 +131,9 @@ public class OSCMessage extends OSCPacket {
 	 * @return all the message's arguments in an {@link java.lang.String} array.
 	 */	
 	public String[] getArgumentsString() {
-		String[] s = new String[arguments.size()];
-		for(int i = 0;i < arguments.size();i++) {
-			s[i] = arguments.elementAt(i).toString();
+		String[] s = new String[argumentCount];
+		for(int i = 0;i < argumentCount;i++) {
+			s[i] = getArgumentString(i);
 		}
 		return s;
 	}
@@ -93,16 +143,27 @@ public class OSCMessage extends OSCPacket {
 	 * @return all the message's arguments in an {@link java.lang.Float} array.
 	 */	
 	public float[] getArgumentsFloat() {
-		String[] s = new String[arguments.size()];
-		float[] f = new float[s.length];
-		for(int i = 0;i < s.length;i++) {
-			s[i] = arguments.elementAt(i).toString();
-			try {
-				f[i] = Float.parseFloat(s[i]);
-			} catch(NumberFormatException e) {}	//catch strings that aren't parasable as floats.
-		}
+		float[] f = new float[argumentCount];
+		copyFloats(f, 0);
 		return f;
 	}
+
+	/**
+	 * Copies the arguments starting at index <code>from</code> into <code>dst</code> as floats, without allocating.
+	 * Copying stops at the end of the arguments or of the array, whichever comes first.
+	 *
+	 * @see #getFloat(int)
+	 * @param dst the array to fill, starting at its index 0.
+	 * @param from the index of the first argument to copy.
+	 * @return the number of floats copied.
+	 */
+	public int copyFloats(float[] dst, int from) {
+		int n = Math.min(dst.length, argumentCount - from);
+		for(int i = 0;i < n;i++) {
+			dst[i] = getFloat(from + i);
+		}
+		return Math.max(n, 0);
+	}
 	
 	/** 
 	 * Returns the OSCMessage arguments at the specified index as a {@link java.lang.Object}.
@@ -110,7 +171,28 @@ public class OSCMessage extends OSCPacket {
 	 * @return the message's argument at the specified index as a {@link java.lang.Object}.
 	 */
 	public Object getArgument(int i) {
-		return arguments.get(i);
+		checkIndex(i);
+		switch(types[i]) {
+			case 'i' :
+				return Integer.valueOf((int) values[i]);
+			case 'h' :
+				return BigInteger.valueOf(values[i]);
+			case 'f' :
+				return Float.valueOf(Float.intBitsToFloat((int) values[i]));
+			case 'd' :
+				return Double.valueOf(Double.longBitsToDouble(values[i]));
+			case 'c' :
+				return Character.valueOf((char) values[i]);
+			case 't' :
+				return OSCBundle.timeTagToDate(values[i]);
+			case 'T' :
+				return Boolean.TRUE;
+			case 'F' :
+				return Boolean.FALSE;
+			case 'I' :
+				return Float.valueOf(Float.POSITIVE_INFINITY);
+		}
+		return objects[i];
 	}
 
 	/** 
@@ -119,7 +201,16 @@ public class OSCMessage extends OSCPacket {
 	 * @return the message's argument at the specified index as a {@link java.lang.String}.
 	 */
 	public String getArgumentString(int i) {
-		return arguments.get(i).toString();
+		checkIndex(i);
+		switch(types[i]) {
+			case 'i' :
+				return String.valueOf((int) values[i]);
+			case 'f' :
+				return String.valueOf(Float.intBitsToFloat((int) values[i]));
+			case 's' :
+				return (String) objects[i];
+		}
+		return String.valueOf(getArgument(i));
 	}
 	
 	/** 
@@ -128,7 +219,95 @@ public class OSCMessage extends OSCPacket {
 	 * @return the message's argument at the specified index as a {@link java.lang.Float}.
 	 */
 	public float getArgumentFloat(int i) {
-		return Float.parseFloat(arguments.get(i).toString());
+		return getFloat(i);
+	}
+
+	/**
+	 * Returns the argument at the specified index as an int, without boxing.
+	 * Floats are truncated, strings are parsed and anything else reads as 0.
+	 * @param i the index of the argument.
+	 * @return the argument's value as an int.
+	 */
+	public int getInt(int i) {
+		checkIndex(i);
+		switch(types[i]) {
+			case 'i' :
+			case 'h' :
+			case 'c' :
+				return (int) values[i];
+			case 'f' :
+				return (int) Float.intBitsToFloat((int) values[i]);
+			case 'd' :
+				return (int) Double.longBitsToDouble(values[i]);
+			case 'T' :
+				return 1;
+			case 's' :
+				return (int) parseFloat((String) objects[i]);
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the argument at the specified index as a float, without boxing.
+	 * Integers are converted, strings are parsed and anything else reads as 0.
+	 * @param i the index of the argument.
+	 * @return the argument's value as a float.
+	 */
+	public float getFloat(int i) {
+		checkIndex(i);
+		switch(types[i]) {
+			case 'f' :
+				return Float.intBitsToFloat((int) values[i]);
+			case 'i' :
+			case 'h' :
+			case 'c' :
+				return values[i];
+			case 'd' :
+				return (float) Double.longBitsToDouble(values[i]);
+			case 'T' :
+				return 1;
+			case 'I' :
+				return Float.POSITIVE_INFINITY;
+			case 's' :
+				return parseFloat((String) objects[i]);
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the argument at the specified index as a 64 bit int, without boxing.
+	 * Time tags are returned as their raw NTP value and doubles are truncated.
+	 * @param i the index of the argument.
+	 * @return the argument's value as a long.
+	 */
+	public long getLong(int i) {
+		checkIndex(i);
+		switch(types[i]) {
+			case 'h' :
+			case 't' :
+			case 'i' :
+			case 'c' :
+				return values[i];
+			case 'd' :
+				return (long) Double.longBitsToDouble(values[i]);
+		}
+		return (long) getFloat(i);
+	}
+
+	/**
+	 * Returns the argument at the specified index as a double, without boxing.
+	 * @param i the index of the argument.
+	 * @return the argument's value as a double.
+	 */
+	public double getDouble(int i) {
+		checkIndex(i);
+		switch(types[i]) {
+			case 'd' :
+				return Double.longBitsToDouble(values[i]);
+			case 'h' :
+				return values[i];
+		}
+		return getFloat(i);
 	}
 	
 	/**
@@ -136,15 +315,172 @@ public class OSCMessage extends OSCPacket {
 	 * @param argument the argument to be added.
 	 */
 	public void addArgument(Object argument) {
-		arguments.add(argument);
+		if(argument instanceof Integer) addInt(((Integer) argument).intValue());
+		else if(argument instanceof Float) addFloat(((Float) argument).floatValue());
+		else if(argument instanceof String) addString((String) argument);
+		else if(argument instanceof BigInteger || argument instanceof Long) add('h', ((Number) argument).longValue(), null);
+		else if(argument instanceof Double) add('d', Double.doubleToLongBits(((Double) argument).doubleValue()), null);
+		else if(argument instanceof Character) add('c', ((Character) argument).charValue(), null);
+		else if(argument instanceof Date) addTimeTag(OSCBundle.dateToTimeTag((Date) argument));
+		else if(argument instanceof byte[]) addBlob((byte[]) argument);
+		else if(Boolean.TRUE.equals(argument)) add('T', 0, null);
+		else if(Boolean.FALSE.equals(argument)) add('F', 0, null);
+		else if(argument instanceof Object[]) add('[', 0, argument);
+		else add((char) 0, 0, argument);
 	}
 	
 	/**
-	 * Adds arguments to an OSCMessage.
-	 * @param arguments the arguments to be added.
+	 * Adds an int argument to an OSCMessage without boxing it.
+	 * @param argument the argument to be added.
+	 */
+	public void addInt(int argument) {
+		add('i', argument, null);
+	}
+
+	/**
+	 * Adds a float argument to an OSCMessage without boxing it.
+	 * @param argument the argument to be added.
+	 */
+	public void addFloat(float argument) {
+		add('f', Float.floatToRawIntBits(argument), null);
+	}
+
+	/**
+	 * Adds a String argument to an OSCMessage.
+	 * @param argument the argument to be added.
+	 */
+	public void addString(String argument) {
+		add('s', 0, argument);
+	}
+
+	/**
+	 * Adds a 64 bit int argument ('h') to an OSCMessage without boxing it.
+	 * @param argument the argument to be added.
+	 */
+	public void addLong(long argument) {
+		add('h', argument, null);
+	}
+
+	/**
+	 * Adds a double argument ('d') to an OSCMessage without boxing it.
+	 * @param argument the argument to be added.
+	 */
+	public void addDouble(double argument) {
+		add('d', Double.doubleToRawLongBits(argument), null);
+	}
+
+	/**
+	 * Adds a time tag argument ('t') to an OSCMessage.
+	 * @see OSCBundle#dateToTimeTag(Date)
+	 * @param timeTag the 64 bit NTP time tag to be added.
+	 */
+	public void addTimeTag(long timeTag) {
+		add('t', timeTag, null);
+	}
+
+	/**
+	 * Adds a blob argument ('b') to an OSCMessage.
+	 * @param blob the bytes to be added.
+	 */
+	public void addBlob(byte[] blob) {
+		add('b', 0, blob);
+	}
+
+	/**
+	 * Adds a nil argument ('N'), which has no data, to an OSCMessage.
+	 */
+	public void addNil() {
+		add('N', 0, null);
+	}
+
+	/**
+	 * Adds an infinitum argument ('I'), which has no data, to an OSCMessage.
+	 */
+	public void addInfinitum() {
+		add('I', 0, null);
+	}
+
+	/**
+	 * Replaces the arguments of an OSCMessage.
+	 * @param arguments the arguments to be set.
 	 */
 	public void setArguments(Object[] arguments) {
-		this.arguments.add(arguments);
+		checkNotFrozen();
+		clearArguments();
+		if(null == arguments)
+			return;
+		for(int i = 0;i < arguments.length;i++) {
+			addArgument(arguments[i]);
+		}
+	}
+
+	/**
+	 * Removes all the arguments of an OSCMessage, keeping its storage for reuse.
+	 */
+	public void clearArguments() {
+		checkNotFrozen();
+		for(int i = 0;i < argumentCount;i++) {
+			objects[i] = null;
+		}
+		argumentCount = 0;
+		invalidate();
+	}
+
+	/**
+	 * Makes the OSCMessage immutable and encodes it once.
+	 * A frozen message, such as a heartbeat or a message that is retried, is sent from its cached bytes every time.
+	 * Any attempt to modify it afterwards throws an {@link java.lang.IllegalStateException}.
+	 * @return this message.
+	 */
+	public OSCMessage freeze() {
+		getByteArray();
+		frozen = true;
+		return this;
+	}
+
+	/**
+	 * Has the message been frozen?
+	 * @see #freeze()
+	 * @return true if the message can no longer be modified.
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void checkNotFrozen() {
+		if(frozen) throw new IllegalStateException("cannot modify the frozen OSCMessage " + address);
+	}
+
+	private void add(char type, long value, Object object) {
+		checkNotFrozen();
+		invalidate();
+		if(argumentCount == types.length) {
+			int capacity = types.length * 2;
+			char[] newTypes = new char[capacity];
+			long[] newValues = new long[capacity];
+			Object[] newObjects = new Object[capacity];
+			System.arraycopy(types, 0, newTypes, 0, argumentCount);
+			System.arraycopy(values, 0, newValues, 0, argumentCount);
+			System.arraycopy(objects, 0, newObjects, 0, argumentCount);
+			types = newTypes;
+			values = newValues;
+			objects = newObjects;
+		}
+		types[argumentCount] = type;
+		values[argumentCount] = value;
+		objects[argumentCount] = object;
+		argumentCount++;
+	}
+
+	private float parseFloat(String s) {
+		try {
+			return Float.parseFloat(s);
+		} catch(NumberFormatException e) {}	//catch strings that aren't parasable as floats.
+		return 0;
+	}
+
+	private void checkIndex(int i) {
+		if(i < 0 || i >= argumentCount) throw new ArrayIndexOutOfBoundsException(i);
 	}
 	
 	protected void computeAddressByteArray(OSCJavaToByteArrayConverter stream) {
@@ -153,12 +489,68 @@ public class OSCMessage extends OSCPacket {
 	
 	protected void computeArgumentsByteArray(OSCJavaToByteArrayConverter stream) {
 		stream.write(',');
-		if (null == arguments)
-			return;
-		stream.writeTypes(arguments);
-		Enumeration enumerator = arguments.elements();
-		while (enumerator.hasMoreElements()) {
-			stream.write(enumerator.nextElement());
+		for(int i = 0;i < argumentCount;i++) {
+			if(types[i] == '[') {
+				stream.write('[');
+				stream.writeTypesArray((Object[]) objects[i]);
+				stream.write(']');
+			} else if(types[i] != 0) stream.write(types[i]);
+		}
+		stream.appendNullCharToAlignStream();
+		for(int i = 0;i < argumentCount;i++) {
+			switch(types[i]) {
+				case 'i' :
+				case 'f' :
+				case 'c' :
+					stream.write((int) values[i]);
+					break;
+				case 'h' :
+				case 'd' :
+				case 't' :
+					stream.write(values[i]);
+					break;
+				case 'b' :
+					stream.writeBlob((byte[]) objects[i]);
+					break;
+				case 's' :
+				case '[' :
+					stream.write(objects[i]);
+					break;
+			}
+		}
+	}
+
+	protected void computeByteBuffer(OSCByteBufferEncoder encoder) {
+		encoder.write(address);
+		encoder.write(',');
+		for(int i = 0;i < argumentCount;i++) {
+			if(types[i] == '[') {
+				encoder.write('[');
+				encoder.writeTypesArray((Object[]) objects[i]);
+				encoder.write(']');
+			} else if(types[i] != 0) encoder.write(types[i]);
+		}
+		encoder.appendNullCharToAlignStream();
+		for(int i = 0;i < argumentCount;i++) {
+			switch(types[i]) {
+				case 'i' :
+				case 'f' :
+				case 'c' :
+					encoder.write((int) values[i]);
+					break;
+				case 'h' :
+				case 'd' :
+				case 't' :
+					encoder.write(values[i]);
+					break;
+				case 'b' :
+					encoder.writeBlob((byte[]) objects[i]);
+					break;
+				case 's' :
+				case '[' :
+					encoder.write(objects[i]);
+					break;
+			}
 		}
 	}
 	
@@ -0,0 +1,116 @@
+package datanetwork.javaosc;
+
+import java.nio.ByteBuffer;
+
+import datanetwork.javaosc.utility.OSCByteBufferEncoder;
+
+/**
+ * <p>A pre-encoded message whose address, type tags and leading arguments never change, followed by a payload that is patched in place.</p>
+ * <p>The invariant header is encoded once, when the template is created.  Float payloads have a fixed size, so each update only
+ * overwrites the payload bytes; string payloads are re-encoded after the header.  The template is then sent as is with
+ * {@link OSCPortOut#send(OSCMessageTemplate)}.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see OSCPortOut
+ */
+
+public class OSCMessageTemplate {
+
+	protected ByteBuffer buffer;
+	protected int payloadOffset;
+	protected int payloadCount;
+	protected char payloadType;
+
+	/**
+	 * Encodes the header of a message and reserves room for its payload.
+	 *
+	 * @param address the OSC address of the message.
+	 * @param header the arguments that come before the payload and never change.
+	 * @param payloadType 'f' for a float payload or 's' for a string payload.
+	 * @param payloadCount the number of payload arguments.
+	 */
+	public OSCMessageTemplate(String address, Object[] header, char payloadType, int payloadCount) {
+		if(payloadType != 'f' && payloadType != 's') throw new IllegalArgumentException("unsupported payload type " + payloadType);
+		this.payloadType = payloadType;
+		this.payloadCount = payloadCount;
+
+		OSCMessage message = new OSCMessage(address, header);
+		for(int i = 0;i < payloadCount;i++) {
+			if(payloadType == 'f') message.addFloat(0);
+			else message.addString("");
+		}
+		// both a float and an empty string take 4 bytes
+		ByteBuffer encoded = new OSCByteBufferEncoder(256).encode(message);
+		buffer = ByteBuffer.allocateDirect(encoded.remaining());
+		buffer.put(encoded);
+		buffer.flip();
+		payloadOffset = buffer.limit() - 4 * payloadCount;
+	}
+
+	/**
+	 * Does this template encode a payload of this type and size?
+	 * @param payloadType 'f' or 's'.
+	 * @param payloadCount the number of payload arguments.
+	 * @return true if the template can be used for that payload.
+	 */
+	public boolean matches(char payloadType, int payloadCount) {
+		return this.payloadType == payloadType && this.payloadCount == payloadCount;
+	}
+
+	/**
+	 * Overwrites one float of the payload.
+	 * @param i the index of the payload argument.
+	 * @param value the new value.
+	 */
+	public void setFloat(int i, float value) {
+		if(payloadType != 'f') throw new IllegalStateException("not a float template");
+		if(i < 0 || i >= payloadCount) throw new ArrayIndexOutOfBoundsException(i);
+		buffer.putInt(payloadOffset + 4 * i, Float.floatToRawIntBits(value));
+	}
+
+	/**
+	 * Overwrites the whole float payload.
+	 * @param data the new payload, as long as the template's payload.
+	 */
+	public void setFloats(float[] data) {
+		if(payloadType != 'f') throw new IllegalStateException("not a float template");
+		if(data.length != payloadCount) throw new IllegalArgumentException("expected " + payloadCount + " floats, got " + data.length);
+		for(int i = 0;i < payloadCount;i++) {
+			buffer.putInt(payloadOffset + 4 * i, Float.floatToRawIntBits(data[i]));
+		}
+	}
+
+	/**
+	 * Re-encodes the string payload after the header.
+	 * @param data the new payload, as long as the template's payload.
+	 */
+	public void setStrings(String[] data) {
+		if(payloadType != 's') throw new IllegalStateException("not a string template");
+		if(data.length != payloadCount) throw new IllegalArgumentException("expected " + payloadCount + " strings, got " + data.length);
+		int size = payloadOffset;
+		for(int i = 0;i < payloadCount;i++) size += (data[i].length() + 4) & ~3;
+		if(size > buffer.capacity()) {
+			ByteBuffer larger = ByteBuffer.allocateDirect(size);
+			buffer.limit(payloadOffset).position(0);
+			larger.put(buffer);
+			buffer = larger;
+		}
+		buffer.limit(buffer.capacity()).position(payloadOffset);
+		for(int i = 0;i < payloadCount;i++) {
+			String s = data[i];
+			int len = s.length();
+			for(int j = 0;j < len;j++) buffer.put((byte) (s.charAt(j) & 0x00FF));
+			for(int j = len;j < ((len + 4) & ~3);j++) buffer.put((byte) 0);
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Returns the encoded message, from position 0 up to its limit.
+	 * @return the buffer holding the encoded message.
+	 */
+	public ByteBuffer getByteBuffer() {
+		buffer.position(0);
+		return buffer;
+	}
+}
@@ -0,0 +1,469 @@
+package datanetwork.javaosc;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>A recyclable, read-only view of an encoded {@link OSCMessage}.</p>
+ * <p>The view does not copy or convert anything: it only records where the address, the type tags and each argument
+ * start inside the {@link java.nio.ByteBuffer} it wraps.  Arguments are read on demand, straight from the buffer, with the typed accessors.
+ * The same view is re-wrapped around every incoming packet, so it is only valid until the listener that received it returns.
+ * Call {@link #toMessage()} to keep a copy.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see OSCViewListener
+ * @see datanetwork.javaosc.utility.OSCByteBufferDecoder
+ */
+
+public class OSCMessageView {
+
+	protected ByteBuffer buffer;
+	protected int start, end;
+	protected int addressOffset, addressLength;
+	protected int typesOffset, typesLength;
+	protected int[] argumentOffsets = new int[16];
+	protected OSCSymbolTable symbols;
+	protected int addressId;
+	protected OSCMessage message;	//built by toMessage() for the wrapped message
+
+	private static final int UNRESOLVED = -2;
+
+	/**
+	 * Creates an empty view.  It has to be wrapped around a buffer with {@link #wrap(ByteBuffer, int, int)} before being read.
+	 */
+	public OSCMessageView() {
+	}
+
+	/**
+	 * Sets the table addresses are resolved against by {@link #getAddressId()}.
+	 * @param symbols the receiving port's table, or null.
+	 */
+	public void setSymbolTable(OSCSymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Points the view at the message encoded in <code>buffer</code> between <code>offset</code> and <code>offset + length</code>.
+	 * The buffer is expected to be in network (big endian) byte order.  Its position and limit are left untouched.
+	 *
+	 * @param buffer the buffer holding the encoded message.
+	 * @param offset the index of the first byte of the message.
+	 * @param length the length of the encoded message in bytes.
+	 * @return false if the bytes are not a well formed message this view can index.
+	 */
+	public boolean wrap(ByteBuffer buffer, int offset, int length) {
+		this.buffer = buffer;
+		start = offset;
+		end = offset + length;
+		typesOffset = 0;
+		typesLength = 0;
+		addressId = UNRESOLVED;
+		message = null;
+
+		addressOffset = offset;
+		addressLength = lengthOfString(addressOffset);
+		if(addressLength < 0) return false;
+		int position = align(addressOffset + addressLength + 1);
+
+		// no type tags: an old style message without arguments
+		if(position >= end || buffer.get(position) != ',') return true;
+
+		int typesLen = lengthOfString(position + 1);
+		if(typesLen < 0) return false;
+		typesOffset = position + 1;
+		position = align(typesOffset + typesLen + 1);
+
+		if(argumentOffsets.length < typesLen) argumentOffsets = new int[Math.max(typesLen, argumentOffsets.length * 2)];
+		for(int i = 0;i < typesLen;i++) {
+			argumentOffsets[i] = position;
+			int size = argumentSize(buffer.get(typesOffset + i), position);
+			if(size < 0 || position + size > end) return false;
+			position += size;
+		}
+		typesLength = typesLen;
+		return true;
+	}
+
+	/**
+	 * Returns the buffer this view is currently wrapped around.
+	 * @return the wrapped buffer.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Returns the index of the first byte of the address in the wrapped buffer.
+	 * @return the offset of the address.
+	 */
+	public int getAddressOffset() {
+		return addressOffset;
+	}
+
+	/**
+	 * Returns the length of the address in bytes, without its terminating null.
+	 * @return the length of the address.
+	 */
+	public int getAddressLength() {
+		return addressLength;
+	}
+
+	/**
+	 * Compares the message's address with a {@link java.lang.String} without allocating.
+	 * @param address the address to compare with.
+	 * @return true if the message is sent to that exact address.
+	 */
+	public boolean addressEquals(String address) {
+		if(address.length() != addressLength) return false;
+		for(int i = 0;i < addressLength;i++) {
+			if((buffer.get(addressOffset + i) & 0xFF) != address.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Resolves the message's address against the view's {@link OSCSymbolTable}, hashing it in place.
+	 * The id is computed once per message.
+	 * @return the id of the address, or -1 if it is unknown.
+	 */
+	public int getAddressId() {
+		if(addressId == UNRESOLVED) addressId = (symbols != null) ? symbols.lookup(buffer, addressOffset, addressLength) : -1;
+		return addressId;
+	}
+
+	/**
+	 * Returns the message's address, the canonical {@link java.lang.String} of the symbol table if the address is known,
+	 * a new {@link java.lang.String} otherwise.
+	 * @return the message's address.
+	 */
+	public String getAddress() {
+		int id = getAddressId();
+		if(id >= 0) return symbols.getAddress(id);
+		return readString(addressOffset, addressLength);
+	}
+
+	/**
+	 * Returns the number of arguments (type tags) of the message.
+	 * @return the number of arguments.
+	 */
+	public int getArgumentCount() {
+		return typesLength;
+	}
+
+	/**
+	 * Returns the OSC type tag of the argument at the specified index, such as 'i', 'f' or 's'.
+	 * @param i the index of the argument.
+	 * @return the argument's type tag.
+	 */
+	public char typeTagAt(int i) {
+		checkIndex(i);
+		return (char) (buffer.get(typesOffset + i) & 0xFF);
+	}
+
+	/**
+	 * Compares the message's type tags, without the leading ',', with <code>tags</code> without allocating.
+	 * @param tags the expected type tags, such as {'i', 'f', 'f'}.
+	 * @return true if the message has exactly those type tags.
+	 */
+	public boolean typeTagsEqual(byte[] tags) {
+		if(tags.length != typesLength) return false;
+		for(int i = 0;i < typesLength;i++) {
+			if(buffer.get(typesOffset + i) != tags[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the index, in the wrapped buffer, of the first byte of the argument at the specified index.
+	 * @param i the index of the argument.
+	 * @return the offset of the argument's data.
+	 */
+	public int getArgumentOffset(int i) {
+		checkIndex(i);
+		return argumentOffsets[i];
+	}
+
+	/**
+	 * Reads the argument at the specified index as an int.
+	 * Floats are truncated, and anything that is not a number reads as 0.
+	 * @param i the index of the argument.
+	 * @return the argument's value as an int.
+	 */
+	public int getInt(int i) {
+		switch(typeTagAt(i)) {
+			case 'i' :
+			case 'c' :
+				return buffer.getInt(argumentOffsets[i]);
+			case 'f' :
+				return (int) buffer.getFloat(argumentOffsets[i]);
+			case 'h' :
+				return (int) buffer.getLong(argumentOffsets[i]);
+			case 'd' :
+				return (int) buffer.getDouble(argumentOffsets[i]);
+			case 'T' :
+				return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Reads the argument at the specified index as a float.
+	 * Integers are converted, and anything that is not a number reads as 0.
+	 * @param i the index of the argument.
+	 * @return the argument's value as a float.
+	 */
+	public float getFloat(int i) {
+		switch(typeTagAt(i)) {
+			case 'f' :
+				return buffer.getFloat(argumentOffsets[i]);
+			case 'i' :
+				return buffer.getInt(argumentOffsets[i]);
+			case 'h' :
+				return buffer.getLong(argumentOffsets[i]);
+			case 'd' :
+				return (float) buffer.getDouble(argumentOffsets[i]);
+			case 'T' :
+				return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Copies the arguments starting at index <code>from</code> into <code>dst</code> as floats, without allocating.
+	 * @see #getFloat(int)
+	 * @param dst the array to fill, starting at its index 0.
+	 * @param from the index of the first argument to copy.
+	 * @return the number of floats copied.
+	 */
+	public int copyFloats(float[] dst, int from) {
+		int n = Math.min(dst.length, typesLength - from);
+		for(int i = 0;i < n;i++) {
+			dst[i] = getFloat(from + i);
+		}
+		return Math.max(n, 0);
+	}
+
+	/**
+	 * Reads the string argument at the specified index into a new {@link java.lang.String}.
+	 * @param i the index of the argument.
+	 * @return the argument as a String, or null if it is not a string.
+	 */
+	public String getString(int i) {
+		char tag = typeTagAt(i);
+		if(tag != 's' && tag != 'S') return null;
+		int offset = argumentOffsets[i];
+		return readString(offset, lengthOfString(offset));
+	}
+
+	/**
+	 * Reads the argument at the specified index as a 64 bit int.  Time tags are returned as their raw NTP value.
+	 * @param i the index of the argument.
+	 * @return the argument's value as a long.
+	 */
+	public long getLong(int i) {
+		switch(typeTagAt(i)) {
+			case 'h' :
+			case 't' :
+				return buffer.getLong(argumentOffsets[i]);
+			case 'd' :
+				return (long) buffer.getDouble(argumentOffsets[i]);
+		}
+		return getInt(i);
+	}
+
+	/**
+	 * Reads the argument at the specified index as a double.
+	 * @param i the index of the argument.
+	 * @return the argument's value as a double.
+	 */
+	public double getDouble(int i) {
+		if(typeTagAt(i) == 'd') return buffer.getDouble(argumentOffsets[i]);
+		return getFloat(i);
+	}
+
+	/**
+	 * Copies the blob argument at the specified index into a new array.
+	 * @param i the index of the argument.
+	 * @return the blob's bytes, or null if it is not a blob.
+	 */
+	public byte[] getBlob(int i) {
+		if(typeTagAt(i) != 'b') return null;
+		int offset = argumentOffsets[i];
+		byte[] blob = new byte[buffer.getInt(offset)];
+		for(int j = 0;j < blob.length;j++) blob[j] = buffer.get(offset + 4 + j);
+		return blob;
+	}
+
+	/**
+	 * Compares the string argument at the specified index with a {@link java.lang.String} without allocating.
+	 * @param i the index of the argument.
+	 * @param s the string to compare with, may be null.
+	 * @return true if the argument is a string equal to <code>s</code>.
+	 */
+	public boolean stringEquals(int i, String s) {
+		char tag = typeTagAt(i);
+		if(s == null || (tag != 's' && tag != 'S')) return false;
+		int offset = argumentOffsets[i];
+		int len = s.length();
+		if(offset + len >= end || buffer.get(offset + len) != 0) return false;
+		for(int j = 0;j < len;j++) {
+			if((buffer.get(offset + j) & 0xFF) != s.charAt(j)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Boxes the argument at the specified index the way {@link datanetwork.javaosc.utility.OSCByteArrayToJavaConverter} would.
+	 * Array markers are returned as null.
+	 * @param i the index of the argument.
+	 * @return the argument as an Object.
+	 */
+	public Object getArgument(int i) {
+		int offset = getArgumentOffset(i);
+		switch(typeTagAt(i)) {
+			case 'i' :
+				return Integer.valueOf(buffer.getInt(offset));
+			case 'h' :
+				return BigInteger.valueOf(buffer.getLong(offset));
+			case 'f' :
+				return Float.valueOf(buffer.getFloat(offset));
+			case 'd' :
+				return Double.valueOf(buffer.getDouble(offset));
+			case 's' :
+			case 'S' :
+				return getString(i);
+			case 'c' :
+				return Character.valueOf((char) buffer.getInt(offset));
+			case 't' :
+				return OSCBundle.timeTagToDate(buffer.getLong(offset));
+			case 'b' :
+				return getBlob(i);
+			case 'T' :
+				return Boolean.TRUE;
+			case 'F' :
+				return Boolean.FALSE;
+			case 'I' :
+				return Float.valueOf(Float.POSITIVE_INFINITY);
+		}
+		return null;
+	}
+
+	/**
+	 * Materializes the viewed message into an {@link OSCMessage} that stays valid after the view is recycled.
+	 * It is built once for each wrapped message, so the listeners of a message share it.
+	 * @return a copy of the message.
+	 */
+	public OSCMessage toMessage() {
+		if(message != null) return message;
+		message = new OSCMessage();
+		message.setAddress(getAddress(), getAddressId());
+		for(int i = 0;i < typesLength;i++) {
+			if(typeTagAt(i) == '[') {
+				int arrayLen = 0;
+				while(i + 1 + arrayLen < typesLength && typeTagAt(i + 1 + arrayLen) != ']') arrayLen++;
+				Object[] array = new Object[arrayLen];
+				for(int j = 0;j < arrayLen;j++) array[j] = getArgument(i + 1 + j);
+				message.addArgument(array);
+				i += arrayLen + 1;
+			} else {
+				switch(typeTagAt(i)) {
+					case 'i' :
+						message.addInt(getInt(i));
+						break;
+					case 'f' :
+						message.addFloat(getFloat(i));
+						break;
+					case 's' :
+					case 'S' :
+						message.addString(getString(i));
+						break;
+					case 'h' :
+						message.addLong(getLong(i));
+						break;
+					case 'd' :
+						message.addDouble(getDouble(i));
+						break;
+					case 't' :
+						message.addTimeTag(getLong(i));
+						break;
+					case 'N' :
+						message.addNil();
+						break;
+					case 'I' :
+						message.addInfinitum();
+						break;
+					default :
+						message.addArgument(getArgument(i));
+				}
+			}
+		}
+		return message;
+	}
+
+	public String toString() {
+		StringBuffer out = new StringBuffer(getAddress());
+		for(int i = 0;i < typesLength;i++) out.append(' ').append(getArgument(i));
+		return out.toString();
+	}
+
+	/**
+	 * Returns the number of bytes taken by an argument, or -1 for an unknown type or a truncated argument.
+	 */
+	private int argumentSize(byte tag, int position) {
+		switch(tag) {
+			case 'i' :
+			case 'f' :
+			case 'c' :
+			case 'r' :
+			case 'm' :
+				return 4;
+			case 'h' :
+			case 'd' :
+			case 't' :
+				return 8;
+			case 's' :
+			case 'S' :
+				int len = lengthOfString(position);
+				return (len < 0) ? -1 : align(position + len + 1) - position;
+			case 'b' :
+				if(position + 4 > end) return -1;
+				int blobLen = buffer.getInt(position);
+				return (blobLen < 0) ? -1 : align(position + 4 + blobLen) - position;
+			case 'T' :
+			case 'F' :
+			case 'N' :
+			case 'I' :
+			case '[' :
+			case ']' :
+				return 0;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the length of the null terminated string starting at <code>offset</code>, or -1 if it is not terminated before the end of the message.
+	 */
+	private int lengthOfString(int offset) {
+		for(int i = offset;i < end;i++) {
+			if(buffer.get(i) == 0) return i - offset;
+		}
+		return -1;
+	}
+
+	/**
+	 * Rounds a position up to the next four byte boundary of the message.
+	 */
+	private int align(int position) {
+		return start + ((position - start + 3) & ~3);
+	}
+
+	private String readString(int offset, int length) {
+		char[] chars = new char[length];
+		for(int i = 0;i < length;i++) chars[i] = (char) (buffer.get(offset + i) & 0xFF);
+		return new String(chars);
+	}
+
+	private void checkIndex(int i) {
+		if(i < 0 || i >= typesLength) throw new IndexOutOfBoundsException("argument " + i + " of " + typesLength);
+	}
+}
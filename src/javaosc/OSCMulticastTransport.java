@@ -0,0 +1,81 @@
+package datanetwork.javaosc;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+
+/**
+ * <p>A transport that receives the datagrams sent to a multicast group, on a {@link java.net.MulticastSocket} with a thread of its own.</p>
+ * <p>When many clients subscribe to the same nodes the server can send each update once to a group instead of once to every client,
+ * leaving the copies to the network.  The group is joined when the transport is opened and left when it is closed.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see OSCPortIn#addTransport(OSCTransport)
+ */
+
+public class OSCMulticastTransport extends OSCSocketTransport {
+
+	protected InetSocketAddress group;
+	protected NetworkInterface networkInterface;
+
+	/**
+	 * Binds a multicast socket to the port and joins the group on the system's default interface.
+	 * @param port the port the group is sent to.
+	 * @param group the address of the group, such as 239.0.0.1.
+	 */
+	public OSCMulticastTransport(int port, String group) throws IOException {
+		this(port, group, null);
+	}
+
+	/**
+	 * Binds a multicast socket to the port and joins the group on a network interface.
+	 * @param port the port the group is sent to.
+	 * @param group the address of the group, such as 239.0.0.1.
+	 * @param networkInterface the interface to receive the group's datagrams on, or null for the system's default.
+	 */
+	public OSCMulticastTransport(int port, String group, NetworkInterface networkInterface) throws IOException {
+		this(new MulticastSocket(port), new InetSocketAddress(InetAddress.getByName(group), port), networkInterface);
+	}
+
+	private OSCMulticastTransport(MulticastSocket socket, InetSocketAddress group, NetworkInterface networkInterface) throws IOException {
+		super(socket);
+		this.group = group;
+		this.networkInterface = networkInterface;
+		try {
+			socket.joinGroup(group, networkInterface);
+		} catch(IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the group the transport receives from.
+	 * @return the address of the group.
+	 */
+	public InetAddress getGroup() {
+		return group.getAddress();
+	}
+
+	/**
+	 * Returns the network interface the group was joined on.
+	 * @return the interface, or null for the system's default.
+	 */
+	public NetworkInterface getNetworkInterface() {
+		return networkInterface;
+	}
+
+	public void close() {
+		try {
+			((MulticastSocket) socket).leaveGroup(group, networkInterface);
+		} catch(IOException e) {
+		}
+		super.close();
+	}
+
+	public String toString() {
+		return "multicast group " + group.getAddress().getHostAddress() + " port " + getLocalPort();
+	}
+}
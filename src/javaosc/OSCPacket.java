@@ -1,21 +1,82 @@
 package datanetwork.javaosc;
 
 import datanetwork.javaosc.utility.*;
+import java.nio.ByteBuffer;
 
 public abstract class OSCPacket {
 
+	private static final ThreadLocal<OSCByteBufferEncoder> encoders = new ThreadLocal<OSCByteBufferEncoder>() {
+		protected OSCByteBufferEncoder initialValue() {
+			return new OSCByteBufferEncoder(2048);
+		}
+	};
+
 	protected boolean isByteArrayComputed;
 	protected byte[] byteArray;
+	protected int version;
 
+	/**
+	 * Encodes the packet once and caches the result until the packet changes.
+	 */
 	protected void computeByteArray() {
-		OSCJavaToByteArrayConverter stream = new OSCJavaToByteArrayConverter();
-		computeByteArray(stream);
+		ByteBuffer encoded = encoders.get().encode(this);
+		byteArray = new byte[encoded.remaining()];
+		encoded.get(byteArray);
+		isByteArrayComputed = true;
 	}
 	
 	protected abstract void computeByteArray(OSCJavaToByteArrayConverter stream);
+	
+	protected abstract void computeByteBuffer(OSCByteBufferEncoder encoder);
+
+	/**
+	 * Drops the cached encoded form.  Called by every method that modifies the packet.
+	 */
+	protected void invalidate() {
+		version++;
+		isByteArrayComputed = false;
+		byteArray = null;
+	}
+
+	/**
+	 * Returns a number that grows every time the packet, or for a bundle any of the packets it contains, is modified.
+	 * @return the packet's modification stamp.
+	 */
+	protected long stamp() {
+		return version;
+	}
 
+	/**
+	 * Is the cached encoded form still up to date?
+	 * @return true if {@link #getByteArray()} and {@link #getByteBuffer()} will not encode the packet again.
+	 */
+	public boolean isByteArrayComputed() {
+		return isByteArrayComputed;
+	}
+
+	/**
+	 * Encodes the packet at the current position of the encoder's buffer.
+	 * @param encoder the encoder to write to.
+	 */
+	public void writeTo(OSCByteBufferEncoder encoder) {
+		computeByteBuffer(encoder);
+	}
+
+	/**
+	 * Returns the encoded packet.  The bytes are computed once and cached until the packet is modified.
+	 * @return the encoded packet, which must not be modified.
+	 */
 	public byte[] getByteArray() {
-		if (!isByteArrayComputed) computeByteArray();
+		if (!isByteArrayComputed()) computeByteArray();
 		return byteArray;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns the cached encoded packet wrapped in a {@link java.nio.ByteBuffer} of its own, so that it can be handed to a channel.
+	 * Each call returns a new buffer around the same bytes, so threads sending the packet at once do not move each other's position.
+	 * @return the encoded packet, which must not be modified.
+	 */
+	public ByteBuffer getByteBuffer() {
+		return ByteBuffer.wrap(getByteArray());
+	}
+}
@@ -0,0 +1,21 @@
+package datanetwork.javaosc;
+
+/**
+ * <p>Chooses which dispatch worker of an {@link OSCPortIn} handles a message.</p>
+ * <p>All the messages of a partition are dispatched in order by the same worker; messages of different partitions are dispatched in parallel.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see OSCPortIn#setWorkers(int, int, OSCRingBuffer.Overflow, OSCPartitioner)
+ */
+
+public interface OSCPartitioner {
+
+	/**
+	 * Returns the partition of a message, such as the id of the node it carries data for.
+	 * Called on the receiving thread, before the message is queued, so it must be quick.
+	 * @param view the received message, only valid during the call.
+	 * @return the partition number, any int, which is mapped onto the workers with {@link Math#floorMod(int, int)}.
+	 */
+	public int partition(OSCMessageView view);
+
+}
@@ -1,23 +1,29 @@
 package datanetwork.javaosc;
 
-import java.net.DatagramSocket;
-
 public abstract class OSCPort {
 
-	DatagramSocket socket;
+	OSCTransport transport;
 
 	int port;
 
 	protected void finalize() throws Throwable {
-		socket.close();
+		if(transport != null) transport.close();
 	}
 	
 	public int getPort() {
 		return port;
 	}
 	
+	/**
+	 * Returns the transport the port receives from or sends through.
+	 * @return the port's transport, or null if it could not be opened.
+	 */
+	public OSCTransport getTransport() {
+		return transport;
+	}
+	
 	public void close() {
-		socket.close();
+		if(transport != null) transport.close();
 	}
 
 }
@@ -1,12 +1,12 @@
 package datanetwork.javaosc;
 
 import datanetwork.javaosc.utility.OSCByteArrayToJavaConverter;
+import datanetwork.javaosc.utility.OSCByteBufferDecoder;
 import datanetwork.DNConnection;
-import java.lang.reflect.Method;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.io.IOException;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
 import java.util.Date;
 
 /**
@@ -22,55 +22,588 @@ import java.util.Date;
  * @author Chandrasekhar Ramakrishnan, Severin Smith, Vincent de Belleval
  */
 
-public class OSCPortIn extends OSCPort implements Runnable {
+public class OSCPortIn extends OSCPort implements OSCReceiver {
 	DNConnection dn;
-	Method eventMethod;
-	Thread thread;
 	CopyOnWriteArrayList<OSCListener> listeners;	//this is thread safe compared to vectors
-	protected OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter();
+	CopyOnWriteArrayList<OSCViewListener> viewListeners;
+	protected OSCListenerRegistry registry = new OSCListenerRegistry();
+	protected OSCSymbolTable symbols = new OSCSymbolTable();
+	protected OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter(symbols);
+	protected OSCByteBufferDecoder decoder = new OSCByteBufferDecoder(symbols);
 	
-	private boolean isListening;
+	private volatile boolean isListening;
+	private volatile OSCRingBuffer ringBuffer;
+	private volatile boolean[] droppable;	//indexed by address id, null when every message may be dropped
+	private volatile Worker[] workers;
+	private final Object workersLock = new Object();	//held while the workers are replaced
+	private volatile OSCPartitioner partitioner;
+	private volatile OSCDuplicateFilter duplicates;
+	private CopyOnWriteArrayList<OSCTransport> extraTransports = new CopyOnWriteArrayList<OSCTransport>();
+	private int transportCount = 1;
+	private volatile OSCReassembler reassembler;
+	private volatile OSCViewListener[] priority;	//indexed by address id, null when no address has priority
+	private final Object priorityLock = new Object();
+	protected OSCByteBufferDecoder priorityDecoder = new OSCByteBufferDecoder(symbols);
+	private volatile int maxPacketSize = 1536;
+	private final OSCReceiver reassembled = new OSCReceiver() {
+		public void receive(ByteBuffer bytes, int offset, int length) {
+			dispatchBytes(bytes, offset, length, decoder, converter);
+		}
+	};
+	private ThreadLocal<OSCByteBufferDecoder> partitionDecoder = new ThreadLocal<OSCByteBufferDecoder>() {
+		protected OSCByteBufferDecoder initialValue() {
+			return new OSCByteBufferDecoder(symbols);
+		}
+	};
 	
 	/**
 	 * Creates an OSCPortIn attached to the {@link DNConnection}.  The OSCPortIn will listen to the specified port for incoming {@link OSCMessage}.
+	 * It listens with an {@link OSCSocketTransport}, on a thread of its own.
 	 *
 	 * @param dn the DNConnection {@link DNConnection} OSCPortIn is attatched to.
 	 * @param port the port on which to listen for OSCMessages.
 	 */
 	public OSCPortIn(DNConnection dn, int port) {
-		this.dn = dn;
-		this.port = port;
+		init(dn, port);
 		
-		listeners = new CopyOnWriteArrayList<OSCListener>();
+		try {
+			transport = new OSCSocketTransport(port);
+			startListening();
+		} catch (IOException e) {
+			System.err.println("\nSenseWorldDataNetwork OSCPortIn error: could not bind to port "+port+".");
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Creates an OSCPortIn attached to the {@link DNConnection} that listens to the specified port with an {@link OSCChannelTransport}.
+	 * The port has no thread of its own: it is read by the selector, which can serve many ports.
+	 *
+	 * @param dn the DNConnection {@link DNConnection} OSCPortIn is attatched to.
+	 * @param port the port on which to listen for OSCMessages.
+	 * @param selector the selector to read the port with, or null for the shared {@link OSCSelector#getDefault()}.
+	 */
+	public OSCPortIn(DNConnection dn, int port, OSCSelector selector) {
+		init(dn, port);
 		
 		try {
-			socket = new DatagramSocket(port);
+			transport = new OSCChannelTransport(port, selector);
 			startListening();
-		} catch (SocketException e) {
+		} catch (IOException e) {
 			System.err.println("\nSenseWorldDataNetwork OSCPortIn error: could not bind to port "+port+".");
 			e.printStackTrace();
 		}
-				
+	}
+	
+	/**
+	 * Creates an OSCPortIn attached to the {@link DNConnection} that listens through the given transport.
+	 *
+	 * @param dn the DNConnection {@link DNConnection} OSCPortIn is attatched to.
+	 * @param transport the transport to receive from.
+	 */
+	public OSCPortIn(DNConnection dn, OSCTransport transport) {
+		init(dn, transport.getLocalPort());
+		this.transport = transport;
+		
 		try {
-			eventMethod = dn.getClass().getMethod("oscEvent", new Class[] { OSCMessage.class});
-		} catch (Exception e) {}
+			startListening();
+		} catch (IOException e) {
+			System.err.println("\nSenseWorldDataNetwork OSCPortIn error: could not listen to port "+port+".");
+			e.printStackTrace();
+		}
+	}
+	
+	private void init(DNConnection dn, int port) {
+		this.dn = dn;
+		this.port = port;
+		
+		listeners = new CopyOnWriteArrayList<OSCListener>();
+		viewListeners = new CopyOnWriteArrayList<OSCViewListener>();
 	}
 	
-	public void run() {
-		byte[] buffer = new byte[1536];
-	    DatagramPacket packet = new DatagramPacket(buffer, 1536);
-	    while(isListening() == true) {
-	    	try {
-	        	socket.receive(packet);
-	            OSCPacket oscPacket = converter.convert(buffer, packet.getLength());
-	            synchronized(this) {
-	            	dispatchPacket(oscPacket);
-	            }
-	        } catch(Exception e) {
+	/**
+	 * Not to be called directly.
+	 * Dispatches a datagram read by the port's transport, or queues it for the dispatch thread if the port has a ring buffer.
+	 */
+	public void receive(ByteBuffer bytes, int offset, int length) {
+		OSCDuplicateFilter d = duplicates;
+		if(d != null) receive(0, bytes, offset, length);
+		else deliver(bytes, offset, length);
+ 	}
+	
+	/**
+	 * Drops the copies of packets already received through another of the port's transports.
+	 * The transports' threads take turns to deliver, as the ring buffer only has room for one producer.
+	 */
+	private void receive(int source, ByteBuffer bytes, int offset, int length) {
+		OSCDuplicateFilter d = duplicates;
+		if(!d.accept(source, bytes, offset, length)) return;
+		synchronized(d) {
+			deliver(bytes, offset, length);
+		}
+	}
+	
+	private void deliver(ByteBuffer bytes, int offset, int length) {
+		OSCViewListener[] p = priority;
+		if(p != null && dispatchPriority(p, bytes, offset, length)) return;
+		Worker[] w = workers;
+		if(w != null) {
+			if(OSCByteBufferDecoder.isBundle(bytes, offset, length)) {
+				OSCBundleCursor bundle = partitionDecoder.get().decodeBundle(bytes, offset, length);
+				if(bundle != null) {
+					partitionBundle(w, bundle);
+					return;
+				}
+			}
+			offer(w, bytes, offset, length);
+			return;
+		}
+		OSCRingBuffer ring = ringBuffer;
+		if(ring != null) {
+			//the ring buffer has room for one producer, and a sharded transport has several reading threads
+			synchronized(ring) {
+				ring.offer(bytes, offset, length, isDroppable(bytes, offset, length));
 			}
 		}
+		else dispatch(bytes, offset, length);
  	}
 	
+	/**
+	 * Tells whether the ring buffers' overflow policy may drop a message, by its address alone.
+	 */
+	private boolean isDroppable(ByteBuffer bytes, int offset, int length) {
+		boolean[] d = droppable;
+		if(d == null) return true;
+		int id = addressId(bytes, offset, length);
+		return id >= 0 && id < d.length && d[id];
+	}
+	
+	/**
+	 * Lets the overflow policy of the ring buffers drop the messages sent to an address when they fill up, such as data that
+	 * the next message replaces anyway.  Once an address is set, the messages sent to addresses that are not set as droppable,
+	 * and bundles, are never dropped: they wait for room instead, so control messages are not lost in a flood of data.
+	 * Until then every message may be dropped.
+	 *
+	 * @param addressId the id of the address in the port's {@link OSCSymbolTable}.
+	 * @param droppable true if the address's messages may be dropped.
+	 */
+	public synchronized void setDroppable(int addressId, boolean droppable) {
+		boolean[] d = this.droppable;
+		boolean[] copy = new boolean[Math.max(addressId + 1, (d != null) ? d.length : 0)];
+		if(d != null) System.arraycopy(d, 0, copy, 0, d.length);
+		copy[addressId] = droppable;
+		this.droppable = copy;
+	}
+	
+	/**
+	 * Classifies a message by its address alone, before anything else is decoded.
+	 * @return the id of the address in the port's symbol table, or -1.
+	 */
+	private int addressId(ByteBuffer bytes, int offset, int length) {
+		int end = offset;
+		int limit = offset + length;
+		while(end < limit && bytes.get(end) != 0) end++;
+		return symbols.lookup(bytes, offset, end - offset);
+	}
+	
+	/**
+	 * Hands a message sent to an address with priority to its listener, on the transport's thread.
+	 * @return true if the listener consumed the message, false if it is to be queued with the rest.
+	 */
+	private boolean dispatchPriority(OSCViewListener[] p, ByteBuffer bytes, int offset, int length) {
+		int id = addressId(bytes, offset, length);
+		if(id < 0 || id >= p.length || p[id] == null) return false;
+		try {
+			synchronized(priorityLock) {
+				OSCMessageView view = priorityDecoder.decodeMessage(bytes, offset, length);
+				return view != null && p[id].acceptView(view);
+			}
+		} catch(Exception e) {
+			if(isListening()) System.err.println("\nSenseWorldDataNetwork OSCPortIn error: could not answer a packet on port "+port+": "+e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Gives the messages sent to an address priority over the rest of the traffic.
+	 * They are recognized on the transport's thread as soon as their address is read, and handed there at once to <code>listener</code>,
+	 * ahead of the messages waiting in the ring buffer or the workers' queues and without waiting for the dispatch of the current one.
+	 * A ping can then be answered while the port is flooded with data.
+	 * Unless the listener consumes it, the message is then queued and dispatched in order with the rest, so the listener
+	 * must be quick and thread safe, and should only answer, leaving the handling of the message to the usual listeners.
+	 *
+	 * @param addressId the id of the address in the port's {@link OSCSymbolTable}.
+	 * @param listener the listener answering the address's messages, or null to queue them with the rest.
+	 */
+	public synchronized void setPriority(int addressId, OSCViewListener listener) {
+		OSCViewListener[] p = priority;
+		OSCViewListener[] copy = new OSCViewListener[Math.max(addressId + 1, (p != null) ? p.length : 0)];
+		if(p != null) System.arraycopy(p, 0, copy, 0, p.length);
+		copy[addressId] = listener;
+		boolean any = false;
+		for(int i = 0;i < copy.length;i++) any |= copy[i] != null;
+		priority = any ? copy : null;
+	}
+	
+	private void dispatch(ByteBuffer bytes, int offset, int length) {
+		try {
+			synchronized(this) {
+				if(!reassemble(bytes, offset, length, decoder, reassembled)) dispatchBytes(bytes, offset, length);
+			}
+		} catch(Exception e) {
+			if(isListening()) System.err.println("\nSenseWorldDataNetwork OSCPortIn error: dropped a packet on port "+port+": "+e);
+		}
+	}
+	
+	/**
+	 * Decouples receiving from dispatching.  The transport's thread only copies each datagram into the ring buffer,
+	 * and a dispatch thread of the port's own decodes it and calls the listeners.  A slow listener then delays the
+	 * following messages, or drops them according to the ring buffer's {@link OSCRingBuffer.Overflow} policy,
+	 * but never stops the socket from being read.
+	 * <p>Datagrams still queued in a previous ring buffer are dispatched before its thread stops.</p>
+	 *
+	 * @param ring the ring buffer to queue datagrams in, or null to dispatch on the transport's thread.
+	 */
+	public synchronized void setRingBuffer(final OSCRingBuffer ring) {
+		ringBuffer = ring;
+		if(ring == null) return;
+		final OSCReceiver dispatcher = new OSCReceiver() {
+			public void receive(ByteBuffer bytes, int offset, int length) {
+				dispatch(bytes, offset, length);
+			}
+		};
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				while(ringBuffer == ring && isListening()) {
+					if(!ring.poll(dispatcher)) ring.await(100000000L);
+				}
+				while(ring.poll(dispatcher));
+			}
+		}, "OSCPortIn dispatch " + port);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Returns the ring buffer between the transport and the dispatch thread, to read its occupancy and drop counters.
+	 * @return the port's ring buffer, or null if the port dispatches on the transport's thread.
+	 */
+	public OSCRingBuffer getRingBuffer() {
+		return ringBuffer;
+	}
+	
+	/**
+	 * Dispatches messages on several worker threads, so that decoding and listeners run on as many cores.
+	 * The partitioner sends each message to a worker; the messages of one partition, such as the data of one node,
+	 * stay in order, while different partitions are dispatched in parallel.  Listeners must then be thread safe.
+	 * Each worker has a ring buffer of its own, which can be read with {@link #getWorkerRingBuffers()}.
+	 * Bundles are split, each of their messages going to its own worker.
+	 * <p>While the port has workers its ring buffer, if any, is left unused.</p>
+	 *
+	 * @param count the number of workers, or 0 or 1 to stop using workers.
+	 * @param capacity the number of datagrams each worker's ring buffer holds.
+	 * @param overflow what to do with incoming datagrams when a worker's ring buffer is full.
+	 * <p>The previous workers first dispatch what they hold and stop, while incoming messages wait,
+	 * so that a partition is never dispatched by two workers at once nor out of order.</p>
+	 *
+	 * @param partitioner chooses the worker of each message, or null to partition on the first int argument.
+	 */
+	public synchronized void setWorkers(int count, int capacity, OSCRingBuffer.Overflow overflow, OSCPartitioner partitioner) {
+		Worker[] w = null;
+		if(count > 1) {
+			w = new Worker[count];
+			for(int i = 0;i < count;i++) {
+				w[i] = new Worker(new OSCRingBuffer(capacity, maxPacketSize, overflow));
+				w[i].thread = new Thread(w[i], "OSCPortIn worker " + i + " " + port);
+				w[i].thread.setDaemon(true);
+			}
+		}
+		synchronized(workersLock) {
+			Worker[] old = workers;
+			if(old != null) {
+				for(int i = 0;i < old.length;i++) old[i].retire();
+				for(int i = 0;i < old.length;i++) old[i].join();
+			}
+			this.partitioner = partitioner;
+			workers = w;
+		}
+		if(w != null) {
+			for(int i = 0;i < count;i++) w[i].thread.start();
+		}
+	}
+	
+	/**
+	 * Returns the ring buffers of the dispatch workers, to read their occupancy, drop counters and latency.
+	 * @return one ring buffer per worker, or null if the port has no workers.
+	 */
+	public OSCRingBuffer[] getWorkerRingBuffers() {
+		Worker[] w = workers;
+		if(w == null) return null;
+		OSCRingBuffer[] rings = new OSCRingBuffer[w.length];
+		for(int i = 0;i < w.length;i++) rings[i] = w[i].ring;
+		return rings;
+	}
+	
+	/**
+	 * Closes the port's transport, freeing its port to be bound again by the next one given to {@link #setTransport(OSCTransport)}.
+	 */
+	public synchronized void closeTransport() {
+		if(transport != null) transport.close();
+		transport = null;
+	}
+	
+	/**
+	 * Replaces the port's transport, for instance by an {@link OSCShardedTransport} reading the same port on several threads.
+	 * The current transport, if still open, is closed first.
+	 * @param transport the new transport.
+	 */
+	public synchronized void setTransport(OSCTransport transport) throws IOException {
+		if(this.transport != null) this.transport.close();
+		this.transport = transport;
+		port = transport.getLocalPort();
+		startListening();
+	}
+	
+	/**
+	 * Receives from another transport as well as the port's own, for instance an {@link OSCMulticastTransport} joined to a group
+	 * the server sends data to.  Messages from every transport are dispatched alike.  A packet received through two transports,
+	 * such as data the server sends both to the client and to the group, is only dispatched once.
+	 * <p>Transports are best added before the server starts sending.</p>
+	 *
+	 * @param transport the transport to receive from.  It is closed along with the port.
+	 */
+	public synchronized void addTransport(OSCTransport transport) throws IOException {
+		if(duplicates == null) duplicates = new OSCDuplicateFilter();
+		final int source = transportCount++;
+		extraTransports.add(transport);
+		transport.start(new OSCReceiver() {
+			public void receive(ByteBuffer bytes, int offset, int length) {
+				OSCPortIn.this.receive(source, bytes, offset, length);
+			}
+		});
+	}
+	
+	/**
+	 * Stops receiving from a transport added with {@link #addTransport(OSCTransport)}, and closes it.
+	 * @param transport the transport to remove.
+	 */
+	public synchronized void removeTransport(OSCTransport transport) {
+		if(extraTransports.remove(transport)) transport.close();
+	}
+	
+	/**
+	 * Returns the filter recognizing the packets received through two transports, to read how many duplicates it dropped.
+	 * @return the filter, or null if the port only has its own transport.
+	 */
+	public OSCDuplicateFilter getDuplicateFilter() {
+		return duplicates;
+	}
+	
+	/**
+	 * Puts back together the packets split into fragments by an {@link OSCPortOut}, each packet being dispatched as soon as its last fragment arrives.
+	 * Without a reassembler fragments are dispatched like any other message.
+	 * Fragments are small, so they fit in the ring buffers, and only the reassembler's buffers have to hold the large packets.
+	 *
+	 * @param reassembler the reassembler, or null to stop reassembling.
+	 */
+	public void setReassembler(OSCReassembler reassembler) {
+		this.reassembler = reassembler;
+	}
+	
+	/**
+	 * Returns the reassembler of the port, to read how many packets it completed or dropped.
+	 * @return the reassembler, or null if the port does not reassemble fragments.
+	 */
+	public OSCReassembler getReassembler() {
+		return reassembler;
+	}
+	
+	/**
+	 * Sets the size of the largest datagram the port receives, for the port's own socket and for the ring buffers of its workers.
+	 * Packets larger than a datagram are better sent in fragments, see {@link #setReassembler(OSCReassembler)}.
+	 * The ring buffer given with {@link #setRingBuffer(OSCRingBuffer)} has its own slot size.
+	 *
+	 * @param maxPacketSize the size of the largest datagram, in bytes, 1536 by default.
+	 */
+	public void setMaxPacketSize(int maxPacketSize) {
+		this.maxPacketSize = maxPacketSize;
+		if(transport instanceof OSCSocketTransport) ((OSCSocketTransport) transport).setMaxPacketSize(maxPacketSize);
+	}
+	
+	/**
+	 * Returns the size of the largest datagram the port receives.
+	 * @return the size in bytes.
+	 */
+	public int getMaxPacketSize() {
+		return maxPacketSize;
+	}
+	
+	/**
+	 * Hands a fragment to the reassembler.
+	 * @return true if the packet was a fragment.
+	 */
+	private boolean reassemble(ByteBuffer bytes, int offset, int length, OSCByteBufferDecoder decoder, OSCReceiver target) {
+		OSCReassembler r = reassembler;
+		if(r == null || !OSCReassembler.isFragment(bytes, offset, length)) return false;
+		OSCMessageView view = decoder.decodeMessage(bytes, offset, length);
+		if(view != null) r.add(view, target);
+		return true;
+	}
+	
+	private void offer(Worker[] w, ByteBuffer bytes, int offset, int length) {
+		Worker worker = w[Math.floorMod(partition(bytes, offset, length), w.length)];
+		synchronized(worker.ring) {
+			if(!worker.isRetired) {
+				worker.ring.offer(bytes, offset, length, isDroppable(bytes, offset, length));
+				return;
+			}
+		}
+		//the workers are being replaced: wait for the new ones, once the old ones have dispatched what they hold
+		synchronized(workersLock) {
+			deliver(bytes, offset, length);
+		}
+	}
+	
+	/**
+	 * Sends each message of a bundle to its own worker, so that the data of a node stays in order whether it arrives alone or bundled.
+	 */
+	private void partitionBundle(Worker[] w, OSCBundleCursor bundle) {
+		while(bundle.next()) {
+			if(bundle.isElementBundle()) {
+				OSCBundleCursor nested = bundle.enterBundle();
+				if(nested != null) partitionBundle(w, nested);
+			} else {
+				offer(w, bundle.getBuffer(), bundle.getElementOffset(), bundle.getElementLength());
+			}
+		}
+	}
+	
+	private int partition(ByteBuffer bytes, int offset, int length) {
+		OSCMessageView view = partitionDecoder.get().decodeMessage(bytes, offset, length);
+		if(view == null) return 0;
+		OSCPartitioner p = partitioner;
+		if(p != null) return p.partition(view);
+		return (view.getArgumentCount() > 0 && view.typeTagAt(0) == 'i') ? view.getInt(0) : 0;
+	}
+	
+	/**
+	 * A dispatch thread with a ring buffer and decoders of its own.
+	 */
+	private class Worker implements Runnable, OSCReceiver {
+		final OSCRingBuffer ring;
+		Thread thread;
+		volatile boolean isRetired;
+		final OSCByteBufferDecoder decoder = new OSCByteBufferDecoder(symbols);
+		final OSCByteArrayToJavaConverter converter = new OSCByteArrayToJavaConverter(symbols);
+		final OSCReceiver reassembled = new OSCReceiver() {
+			public void receive(ByteBuffer bytes, int offset, int length) {
+				dispatchBytes(bytes, offset, length, decoder, converter);
+			}
+		};
+		
+		Worker(OSCRingBuffer ring) {
+			this.ring = ring;
+		}
+		
+		public void run() {
+			while(!isRetired && isListening()) {
+				if(!ring.poll(this)) ring.await(100000000L);
+			}
+			while(ring.poll(this));
+		}
+		
+		/**
+		 * Stops taking messages.  The worker's thread then dispatches what its ring buffer holds and ends.
+		 */
+		void retire() {
+			synchronized(ring) {
+				isRetired = true;
+			}
+			LockSupport.unpark(thread);
+		}
+		
+		/**
+		 * Waits for the worker's thread to end, unless it is the calling thread, as when a listener replaces the workers.
+		 */
+		void join() {
+			if(thread == Thread.currentThread()) return;
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		public void receive(ByteBuffer bytes, int offset, int length) {
+			try {
+				if(!reassemble(bytes, offset, length, decoder, reassembled)) dispatchBytes(bytes, offset, length, decoder, converter);
+			} catch(Exception e) {
+				if(isListening()) System.err.println("\nSenseWorldDataNetwork OSCPortIn error: dropped a packet on port "+port+": "+e);
+			}
+		}
+	}
+	
+	/**
+	 * Decodes and dispatches one received packet.
+	 * Messages are decoded in place into the recycled {@link OSCMessageView} and passed to the view listeners first.
+	 * An {@link OSCMessage} is only materialized when {@link OSCListener}s or the oscEvent method need one,
+	 * so a port with only view listeners receives without allocating.
+	 * Bundles are walked in place with an {@link OSCBundleCursor}, each element being dispatched as its own packet.
+	 * Messages the view cannot index go through the general {@link OSCByteArrayToJavaConverter}.
+	 *
+	 * @param bytes the buffer holding the packet.
+	 * @param offset the index of the first byte of the packet.
+	 * @param length the length of the packet in bytes.
+	 */
+	protected void dispatchBytes(ByteBuffer bytes, int offset, int length) {
+		dispatchBytes(bytes, offset, length, decoder, converter);
+	}
+	
+	private void dispatchBytes(ByteBuffer bytes, int offset, int length, OSCByteBufferDecoder decoder, OSCByteArrayToJavaConverter converter) {
+		if(OSCByteBufferDecoder.isBundle(bytes, offset, length)) {
+			OSCBundleCursor bundle = decoder.decodeBundle(bytes, offset, length);
+			if(bundle == null) throw new IllegalArgumentException("malformed OSC bundle of " + length + " bytes");
+			dispatchBundle(bundle, decoder, converter);
+			return;
+		}
+		OSCMessageView view = decoder.decodeMessage(bytes, offset, length);
+		if(view != null) {
+			dispatchView(view);
+			return;
+		}
+		byte[] array;
+		int arrayOffset;
+		if(bytes.hasArray()) {
+			array = bytes.array();
+			arrayOffset = bytes.arrayOffset() + offset;
+		} else {
+			array = new byte[length];
+			arrayOffset = 0;
+			for(int i = 0;i < length;i++) array[i] = bytes.get(offset + i);
+		}
+		dispatchPacket(converter.convert(array, arrayOffset, length));
+	}
+	
+	private void dispatchBundle(OSCBundleCursor bundle, OSCByteBufferDecoder decoder, OSCByteArrayToJavaConverter converter) {
+		while(bundle.next()) {
+			if(bundle.isElementBundle()) {
+				OSCBundleCursor nested = bundle.enterBundle();
+				if(nested != null) dispatchBundle(nested, decoder, converter);
+			} else {
+				dispatchBytes(bundle.getBuffer(), bundle.getElementOffset(), bundle.getElementLength(), decoder, converter);
+			}
+		}
+	}
+	
+	private void dispatchView(OSCMessageView view) {
+		for(OSCViewListener listener : viewListeners) {
+			if(listener.acceptView(view)) return;
+		}
+		//the DNConnection is a view listener and builds its own message when it needs one
+		OSCListener[] matching = registry.lookup(view);
+		if(matching.length > 0 || !listeners.isEmpty()) dispatchMessage(view.toMessage(), matching, null, false);
+	}
+	
 	private void dispatchPacket(OSCPacket packet) {
 		dispatchPacket(packet, null);
 	}
@@ -94,24 +627,30 @@ public class OSCPortIn extends OSCPort implements Runnable {
 	}
 	
 	private void dispatchMessage(OSCMessage message, Date time) {
+		dispatchMessage(message, registry.lookup(message.getAddress()), time, true);
+	}
+	
+	private void dispatchMessage(OSCMessage message, OSCListener[] matching, Date time, boolean toConnection) {
 		for(OSCListener listener : listeners) {
 			listener.acceptMessage(message);
 		}
+		for(OSCListener listener : matching) {
+			listener.acceptMessage(message);
+		}
 		
-		if(eventMethod != null) {
+		//a plain call, the DNConnection's oscEvent being known at compile time
+		if(dn != null && toConnection) {
 			try {
-				eventMethod.invoke(dn, new Object[] { message });
+				dn.oscEvent(message);
 			} catch (Exception e) {
 				e.printStackTrace();
-				eventMethod = null;
 			}
 		}
 	}
 	
-	private void startListening() {
+	private void startListening() throws IOException {
 		isListening = true;
-		thread = new Thread(this);
-		thread.start();
+		transport.start(this);
 	}
 	
 	private void stopListening() {
@@ -122,6 +661,14 @@ public class OSCPortIn extends OSCPort implements Runnable {
 		return isListening;
 	}
 	
+	/**
+	 * Returns the table of the addresses this port expects.  Incoming messages sent to one of them carry its id.
+	 * @return the port's symbol table.
+	 */
+	public OSCSymbolTable getSymbolTable() {
+		return symbols;
+	}
+	
 	/** 
 	 * Adds a listener to OSCPortIn.
 	 * @param listener the listener to be added.
@@ -138,19 +685,53 @@ public class OSCPortIn extends OSCPort implements Runnable {
 	        listeners.remove(listener);
 	}
 	
+	/** 
+	 * Adds a listener to the messages sent to an address, or to the addresses matching an OSC address pattern such as /info/* or /{registered,unregistered}.
+	 * Unlike the listeners added with {@link #addListener(OSCListener)}, which see every message, it is only called for the messages it matches.
+	 * @param pattern the address or address pattern to listen to.
+	 * @param listener the listener to be added.
+	 * @see OSCListenerRegistry
+	 */
+	public void addListener(String pattern, OSCListener listener) {
+		registry.add(pattern, listener);
+	}
+	
+	/** 
+	 * Removes a listener added for an address or address pattern.
+	 * @param pattern the address or address pattern the listener was added for.
+	 * @param listener the listener to be removed.
+	 */
+	public void removeListener(String pattern, OSCListener listener) {
+		registry.remove(pattern, listener);
+	}
+	
+	/** 
+	 * Adds a listener that reads incoming messages through a recycled {@link OSCMessageView}.
+	 * View listeners are called before the {@link OSCListener}s.
+	 * @param listener the listener to be added.
+	 */
+	public synchronized void addViewListener(OSCViewListener listener) {
+		viewListeners.add(listener);
+	}
+	
+	/** 
+	 * Removes a view listener from OSCPortIn.
+	 * @param listener the listener to be removed.
+	 */
+	public synchronized void removeViewListener(OSCViewListener listener) {
+		viewListeners.remove(listener);
+	}
+	
 	/**
-	 * Stops and removes all the listeners then kills the OSCPortIn thread.
+	 * Stops and removes all the listeners then kills the OSCPortIn threads.
 	 */
 	public void close() {
 		stopListening();
 		for(OSCListener listener : listeners) {
 			removeListener(listener);
 		}
-		try {
-			thread.interrupt();
-		} catch(SecurityException e) {
-		} catch(Exception e) {
-        }
-		socket.close();
+		viewListeners.clear();
+		if(transport != null) transport.close();
+		for(OSCTransport extra : extraTransports) extra.close();
 	}
 }
@@ -1,16 +1,56 @@
 package datanetwork.javaosc;
 
-import java.net.SocketException;
+import java.io.IOException;
 import java.net.UnknownHostException;
 import java.net.InetAddress;
-import java.net.DatagramSocket;
-import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import datanetwork.javaosc.*;
+import datanetwork.javaosc.utility.OSCByteBufferEncoder;
 
 public class OSCPortOut extends OSCPort {
 
 	protected InetAddress address;
+	protected volatile InetSocketAddress target;
+	protected OSCByteBufferEncoder encoder = new OSCByteBufferEncoder(2048);
+	private boolean ownsTransport;
+	
+	protected ByteBuffer batch;		//the bundle being collected, null when not batching
+	protected int batchCount;
+	protected long batchDelay;		//in nanoseconds, 0 for no deadline
+	protected long batchDeadline;
+	private Thread flusher;
+	
+	protected volatile OSCRingBuffer queue;		//the packets waiting for the sender thread, null when sending on the caller's thread
+	protected ByteBuffer senderBuffer;		//the packets drained from the queue, back to back
+	protected int[] senderLengths = new int[64];
+	protected int senderCount;
+	private int senderSlotSize;
+	private ByteBuffer senderSlots, senderSource;	//the queue's buffer, and a view of it to copy from
+	private Thread sender;
+	private final AtomicLong sendErrors = new AtomicLong();
+	private volatile boolean reportSendError = true;	//only the first failure after a success is printed
+	
+	protected ByteBuffer fragment;		//the fragment being sent, null when not fragmenting
+	private OSCByteBufferEncoder fragmentEncoder;	//writes the fragment headers into the fragment buffer
+	private int fragmentId;
+	private OSCReceiver senderReceiver = new OSCReceiver() {
+		public void receive(ByteBuffer buffer, int offset, int length) {
+			if(buffer != senderSlots) {
+				senderSlots = buffer;
+				senderSource = buffer.duplicate();
+			}
+			senderSource.limit(offset + length).position(offset);
+			senderBuffer.put(senderSource);
+			senderLengths[senderCount++] = length;
+		}
+	};
+	
+	private static final byte[] BUNDLE_TAG = { '#', 'b', 'u', 'n', 'd', 'l', 'e', 0 };
+	private static final int BUNDLE_HEADER_SIZE = 16;
 	
 	/**
 	 * Attempts to connect to the server at the specified IP.  Creates a socket through which to connect to the server and sets the outgoing communication port.
@@ -19,6 +59,18 @@ public class OSCPortOut extends OSCPort {
 	 * @param port the port to which send the {@link OSCMessage}.
 	 */
 	public OSCPortOut(String address, int port) {
+		this(address, port, null);
+	}
+	
+	/**
+	 * Attempts to connect to the server at the specified IP and sends through the given transport,
+	 * for instance the transport of an {@link OSCPortIn} so that one socket both sends and receives.
+	 *
+	 * @param address the server's IP address as a {@link java.lang.String}.
+	 * @param port the port to which send the {@link OSCMessage}.
+	 * @param transport the transport to send through, or null to open a blocking {@link OSCChannelTransport}.
+	 */
+	public OSCPortOut(String address, int port, OSCTransport transport) {
 		this.port = port;
 		
 		InetAddress tentativeAddress = null;
@@ -37,32 +89,392 @@ public class OSCPortOut extends OSCPort {
 		}
 		
 		this.address = tentativeAddress;
+		this.target = new InetSocketAddress(tentativeAddress, port);
 	
+		if(transport != null) {
+			this.transport = transport;
+			return;
+		}
 		try {
-			socket = new DatagramSocket();
-		} catch (SocketException e) {
-			System.err.println("\nSenseWorldDataNetwork OSCPortOut error: could not Create Outbound DatagramSocket");
+			this.transport = new OSCChannelTransport(0);
+			ownsTransport = true;
+		} catch (IOException e) {
+			System.err.println("\nSenseWorldDataNetwork OSCPortOut error: could not Create Outbound DatagramChannel");
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * Sends to another port of the server, for instance after the server restarted on a new port.
+	 * The port is kept open, so whoever holds it, such as a {@link datanetwork.Responder}, goes on sending through it.
+	 * @param port the port to which send the {@link OSCMessage}.
+	 */
+	public synchronized void setPort(int port) {
+		if(port == this.port) return;
+		flush();
+		this.port = port;
+		target = new InetSocketAddress(address, port);
+		if(transport instanceof OSCChannelTransport && ((OSCChannelTransport) transport).isConnected()) {
+			try {
+				((OSCChannelTransport) transport).connect(target);
+			} catch (IOException e) {
+				System.err.println("\nSenseWorldDataNetwork OSCPortOut error: could not connect to "+target+".");
+				e.printStackTrace();
+			}
+		}
+	}
+	
 	/**
 	 * Sends {@link OSCMessage} to the server.  
 	 * @param message the {@link OSCMessage} to send.
 	 */
 	public void send(OSCMessage message) {
-		byte[] byteArray = message.getByteArray();
+		send((OSCPacket) message);
+	}
+	
+	/**
+	 * Sends an {@link OSCMessage} or {@link OSCBundle} to the server.
+	 * A packet whose encoded form is cached, such as a frozen {@link OSCMessage}, is sent from its cached bytes.
+	 * Any other packet is encoded straight into the port's reusable direct buffer and handed to the channel without any intermediate copy.
+	 * @param packet the packet to send.
+	 */
+	public synchronized void send(OSCPacket packet) {
+		try {
+			ByteBuffer encoded = packet.isByteArrayComputed() ? packet.getByteBuffer() : encoder.encode(packet);
+			if(batch != null) enqueue(encoded);
+			else write(encoded);
+		} catch (Exception e) {
+			sendErrors.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Sends a packet at once, ahead of the pending bundle and of the packets queued for the sender thread.
+	 * Meant for small, urgent replies such as a pong, best frozen so that they are encoded only once.
+	 * @param packet the packet to send.
+	 */
+	public void sendNow(OSCPacket packet) {
 		try {
-			DatagramPacket datapacket = new DatagramPacket(byteArray, byteArray.length, address, port);
-			socket.send(datapacket);
+			transport.send(packet.getByteBuffer(), target);
 		} catch (Exception e) {
-		}		
+			sendErrors.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Sends a pre-encoded {@link OSCMessageTemplate} to the server as it currently stands.
+	 * @param template the template to send.
+	 */
+	public synchronized void send(OSCMessageTemplate template) {
+		try {
+			if(batch != null) enqueue(template.getByteBuffer());
+			else write(template.getByteBuffer());
+		} catch (Exception e) {
+			sendErrors.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Collects the packets sent through the port into bundles instead of sending each one as its own datagram.
+	 * A bundle is sent once the next packet would make it larger than <code>maxBundleSize</code>, once the oldest packet in it
+	 * has waited <code>maxDelayMillis</code>, or when {@link #flush()} is called.  A bundle holding a single packet is sent as that packet.
+	 * Packets too large to share a bundle are sent on their own, after the pending bundle.
+	 *
+	 * @param maxBundleSize the largest datagram to send, in bytes, such as 1472 for a 1500 byte MTU, or 0 to stop batching.
+	 * @param maxDelayMillis the longest a packet waits in a bundle, or 0 to only send on size or on {@link #flush()}.
+	 */
+	public synchronized void setBatching(int maxBundleSize, long maxDelayMillis) {
+		flush();
+		if(maxBundleSize <= 0) {
+			batch = null;
+			notifyAll();
+			return;
+		}
+		batch = ByteBuffer.allocateDirect(Math.min(maxBundleSize, OSCByteBufferEncoder.MAX_DATAGRAM_SIZE));
+		batchDelay = maxDelayMillis * 1000000L;
+		if(flusher == null) {
+			flusher = new Thread(new Runnable() {
+				public void run() {
+					flushOnDeadline();
+				}
+			}, "OSCPortOut flush " + port);
+			flusher.setDaemon(true);
+			flusher.start();
+		}
+	}
+	
+	/**
+	 * Returns true if the port collects packets into bundles.
+	 * @return true if batching.
+	 */
+	public synchronized boolean isBatching() {
+		return batch != null;
+	}
+	
+	/**
+	 * Sends the pending bundle now.
+	 */
+	public synchronized void flush() {
+		try {
+			flushBatch();
+		} catch (Exception e) {
+			sendErrors.incrementAndGet();
+		}
+	}
+	
+	private void enqueue(ByteBuffer packet) throws IOException {
+		int length = packet.remaining();
+		if(batchCount > 0 && batch.position() + 4 + length > batch.capacity()) flushBatch();
+		if(BUNDLE_HEADER_SIZE + 4 + length > batch.capacity()) {
+			write(packet);
+			return;
+		}
+		if(batchCount == 0) {
+			batch.clear();
+			batch.put(BUNDLE_TAG);
+			batch.putLong(OSCBundle.IMMEDIATE);
+			batchDeadline = System.nanoTime() + batchDelay;
+			notifyAll();
+		}
+		batch.putInt(length);
+		batch.put(packet);
+		batchCount++;
+	}
+	
+	private void flushBatch() throws IOException {
+		if(batch == null || batchCount == 0) return;
+		batch.flip();
+		if(batchCount == 1) batch.position(BUNDLE_HEADER_SIZE + 4);
+		batchCount = 0;
+		write(batch);
+	}
+	
+	/**
+	 * Splits the packets larger than a datagram into fragments, to be put back together by an {@link OSCPortIn} with an {@link OSCReassembler}.
+	 * Smaller packets, which are most of them, are sent as they are.  Without fragmentation a packet larger than a datagram
+	 * is cut off by the receiving socket.
+	 *
+	 * @param maxDatagramSize the largest datagram to send, in bytes, such as 1472 for a 1500 byte MTU, or 0 to stop fragmenting.
+	 */
+	public synchronized void setFragmentation(int maxDatagramSize) {
+		if(maxDatagramSize <= 0) fragment = null;
+		else if(maxDatagramSize < OSCReassembler.HEADER_SIZE + 4) throw new IllegalArgumentException("datagrams of " + maxDatagramSize + " bytes cannot hold a fragment");
+		else {
+			fragment = ByteBuffer.allocateDirect(maxDatagramSize);
+			fragmentEncoder = new OSCByteBufferEncoder(fragment);
+		}
+	}
+	
+	/**
+	 * Sends an encoded packet, in fragments if it is larger than a datagram.
+	 */
+	private void write(ByteBuffer packet) throws IOException {
+		ByteBuffer f = fragment;
+		int total = packet.remaining();
+		if(f == null || total <= f.capacity()) {
+			writeDatagram(packet);
+			return;
+		}
+		int chunk = (f.capacity() - OSCReassembler.HEADER_SIZE) & ~3;
+		int count = (total + chunk - 1) / chunk;
+		OSCByteBufferEncoder e = fragmentEncoder;
+		int id = fragmentId++;
+		int start = packet.position();
+		ByteBuffer chunks = packet.duplicate();
+		for(int index = 0;index < count;index++) {
+			int offset = index * chunk;
+			int length = Math.min(chunk, total - offset);
+			f.clear();
+			e.write(OSCReassembler.ADDRESS);
+			e.write(',');
+			for(int i = 0;i < OSCReassembler.TAGS.length;i++) e.write((char) OSCReassembler.TAGS[i]);
+			e.appendNullCharToAlignStream();
+			e.write(id);
+			e.write(index);
+			e.write(count);
+			e.write(total);
+			e.write(offset);
+			e.write(length);
+			chunks.limit(start + offset + length).position(start + offset);
+			f.put(chunks);
+			while((f.position() & 3) != 0) f.put((byte) 0);
+			f.flip();
+			writeDatagram(f);
+		}
+		packet.position(packet.limit());
+	}
+	
+	/**
+	 * Sends a datagram, or queues it for the sender thread when sending asynchronously.
+	 */
+	private void writeDatagram(ByteBuffer packet) throws IOException {
+		OSCRingBuffer q = queue;
+		if(q == null) {
+			transport.send(packet, target);
+		} else {
+			q.offer(packet, packet.position(), packet.remaining());
+			packet.position(packet.limit());
+		}
+	}
+	
+	/**
+	 * Hands the packets sent through the port to a sender thread of its own, so that the thread calling send,
+	 * usually Processing's animation thread, never waits for the network.
+	 * The packets are copied into a bounded queue, which the sender thread drains in order, several packets at a time.
+	 * An outgoing channel opened by the port is connected to the server, sparing a lookup of the target for every packet.
+	 * Read {@link #getSendQueue()} for the depth of the queue and the packets it dropped, and {@link #getSendErrors()} for the packets that failed.
+	 *
+	 * @param capacity the number of packets the queue holds, or 0 to send on the caller's thread again.
+	 * @param maxPacketSize the largest packet to queue, in bytes.  Larger packets are dropped.
+	 * @param overflow what to do with a packet when the queue is full.  {@link OSCRingBuffer.Overflow#BLOCK} makes the caller wait.
+	 */
+	public synchronized void setAsync(int capacity, int maxPacketSize, OSCRingBuffer.Overflow overflow) {
+		flush();
+		stopSender();
+		if(capacity <= 0) return;
+		if(ownsTransport && transport instanceof OSCChannelTransport) {
+			try {
+				((OSCChannelTransport) transport).connect(target);
+			} catch (IOException e) {
+				System.err.println("\nSenseWorldDataNetwork OSCPortOut error: could not connect to "+target+".");
+				e.printStackTrace();
+			}
+		}
+		int size = Math.max(maxPacketSize, 65536);
+		if(senderBuffer == null || senderBuffer.capacity() < size) senderBuffer = ByteBuffer.allocateDirect(size);
+		senderSlotSize = maxPacketSize;
+		final OSCRingBuffer q = new OSCRingBuffer(capacity, maxPacketSize, overflow);
+		queue = q;
+		sender = new Thread(new Runnable() {
+			public void run() {
+				drain(q);
+			}
+		}, "OSCPortOut send " + port);
+		sender.setDaemon(true);
+		sender.start();
+	}
+	
+	/**
+	 * Returns true if packets are sent by a sender thread.
+	 * @return true if sending asynchronously.
+	 */
+	public boolean isAsync() {
+		return queue != null;
+	}
+	
+	/**
+	 * Returns the queue of packets waiting for the sender thread, to read its depth and how many packets it dropped.
+	 * @return the queue, or null if packets are sent on the caller's thread.
+	 */
+	public OSCRingBuffer getSendQueue() {
+		return queue;
+	}
+	
+	/**
+	 * Returns the number of packets that could not be encoded or sent since the port was opened.
+	 * The first failure after a packet was sent is also printed.
+	 * @return the number of failed packets.
+	 */
+	public long getSendErrors() {
+		return sendErrors.get();
+	}
+	
+	private void drain(OSCRingBuffer q) {
+		while(queue == q) {
+			while(sendQueued(q));
+			q.await(100000000L);
+		}
+		//send what was queued before the queue was replaced
+		while(sendQueued(q));
+	}
+	
+	/**
+	 * Takes every packet queued, as many as the sender buffer holds, and sends them together:
+	 * a stream transport frames them all and writes them at once, other transports send one datagram each.
+	 * @return false if the queue was empty.
+	 */
+	private boolean sendQueued(OSCRingBuffer q) {
+		senderBuffer.clear();
+		senderCount = 0;
+		while(senderCount < senderLengths.length && senderBuffer.remaining() >= senderSlotSize && q.poll(senderReceiver));
+		if(senderCount == 0) return false;
+		senderBuffer.flip();
+		if(transport instanceof OSCStreamTransport) {
+			try {
+				((OSCStreamTransport) transport).send(senderBuffer, senderLengths, senderCount);
+				reportSendError = true;
+			} catch (Exception e) {
+				sendFailed(e, senderCount);
+			}
+			return true;
+		}
+		int limit = senderBuffer.limit();
+		for(int i = 0;i < senderCount;i++) {
+			int end = senderBuffer.position() + senderLengths[i];
+			senderBuffer.limit(end);
+			try {
+				transport.send(senderBuffer, target);
+				reportSendError = true;
+			} catch (Exception e) {
+				sendFailed(e, 1);
+			}
+			senderBuffer.limit(limit).position(end);
+		}
+		return true;
+	}
+	
+	private void sendFailed(Exception e, int packets) {
+		sendErrors.addAndGet(packets);
+		if(!reportSendError) return;
+		reportSendError = false;
+		System.err.println("\nSenseWorldDataNetwork OSCPortOut error: could not send to "+target+": "+e);
+	}
+	
+	/**
+	 * Stops the sender thread once it has sent the packets already queued.
+	 */
+	private void stopSender() {
+		Thread t = sender;
+		if(t == null) return;
+		queue = null;
+		sender = null;
+		LockSupport.unpark(t);
+		if(t == Thread.currentThread()) return;
+		try {
+			t.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private synchronized void flushOnDeadline() {
+		while(true) {
+			try {
+				if(batch == null) {
+					flusher = null;
+					return;
+				}
+				long remaining = batchDeadline - System.nanoTime();
+				if(batchCount == 0 || batchDelay == 0) wait();
+				else if(remaining > 0) wait(remaining / 1000000, (int) (remaining % 1000000));
+				else flush();
+			} catch (InterruptedException e) {
+				flusher = null;
+				return;
+			}
+		}
 	}
 	
 	/** 
-	 * Closes the socket used to connect to the server.
+	 * Closes the transport used to connect to the server, unless it was given to the port.
 	 */
 	public void close() {
-		socket.close();
+		setBatching(0, 0);
+		setAsync(0, 0, null);
+		if(ownsTransport) transport.close();
+	}
+	
+	protected void finalize() throws Throwable {
+		close();
 	}
 }
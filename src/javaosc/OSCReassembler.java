@@ -0,0 +1,184 @@
+package datanetwork.javaosc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Puts back together the packets an {@link OSCPortOut} split into fragments because they were larger than a datagram.</p>
+ * <p>Each fragment is an OSC message sent to {@value #ADDRESS} with the type tags <code>,iiiiib</code>: the id of the packet,
+ * the index of the fragment, the number of fragments, the size of the whole packet, the offset of the fragment in it, and the
+ * fragment's bytes as a blob.  Fragments may arrive in any order and more than once.</p>
+ * <p>The reassembler holds a bounded number of incomplete packets, each in a buffer kept from one packet to the next, and refuses
+ * packets larger than its maximum size.  A packet still incomplete after the timeout, or pushed out by a newer one, is dropped.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see OSCPortOut#setFragmentation(int)
+ * @see OSCPortIn#setReassembler(OSCReassembler)
+ */
+
+public class OSCReassembler {
+
+	/** The address fragments are sent to. */
+	public static final String ADDRESS = "/fragment";
+	/** The type tags of a fragment, without the leading ','. */
+	static final byte[] TAGS = { 'i', 'i', 'i', 'i', 'i', 'b' };
+	/** The size of a fragment without its bytes: the padded address and type tags, five ints and the blob's size. */
+	public static final int HEADER_SIZE = 12 + 8 + 5 * 4 + 4;
+	private static final byte[] PREFIX = { '/', 'f', 'r', 'a', 'g', 'm', 'e', 'n', 't', 0, 0, 0, ',' };
+
+	/** The number of incomplete packets held by default. */
+	public static final int DEFAULT_PENDING = 8;
+	/** How long an incomplete packet is held by default, in milliseconds. */
+	public static final long DEFAULT_TIMEOUT = 2000;
+
+	protected final int maxPacketSize;
+	protected final long timeout;
+	protected final Pending[] pending;
+	private long completed, expired, dropped;
+
+	/**
+	 * An incomplete packet.
+	 */
+	protected static class Pending {
+		boolean isActive;
+		int id;
+		int count;
+		int received;
+		boolean[] got = new boolean[0];
+		ByteBuffer data = ByteBuffer.allocate(0);
+		long started;
+	}
+
+	/**
+	 * Creates a reassembler holding {@value #DEFAULT_PENDING} incomplete packets for {@value #DEFAULT_TIMEOUT} milliseconds.
+	 * @param maxPacketSize the size of the largest packet to reassemble, in bytes.
+	 */
+	public OSCReassembler(int maxPacketSize) {
+		this(maxPacketSize, DEFAULT_PENDING, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Creates a reassembler.
+	 * @param maxPacketSize the size of the largest packet to reassemble, in bytes.
+	 * @param maxPending the number of incomplete packets held at once.
+	 * @param timeoutMillis how long an incomplete packet is held.
+	 */
+	public OSCReassembler(int maxPacketSize, int maxPending, long timeoutMillis) {
+		this.maxPacketSize = maxPacketSize;
+		this.timeout = timeoutMillis * 1000000L;
+		pending = new Pending[maxPending];
+		for(int i = 0;i < maxPending;i++) pending[i] = new Pending();
+	}
+
+	/**
+	 * Tells whether a packet is a fragment by its first bytes, without decoding it.
+	 * @param bytes the buffer holding the packet.
+	 * @param offset the index of the first byte of the packet.
+	 * @param length the length of the packet in bytes.
+	 * @return true if the packet is sent to {@value #ADDRESS}.
+	 */
+	public static boolean isFragment(ByteBuffer bytes, int offset, int length) {
+		if(length < HEADER_SIZE) return false;
+		for(int i = 0;i < PREFIX.length;i++) {
+			if(bytes.get(offset + i) != PREFIX[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a fragment, and hands the packet to the receiver once its last fragment has arrived.
+	 * The receiver is called before the method returns and must not keep the buffer.
+	 * @param fragment the fragment, decoded in place.
+	 * @param receiver the receiver of the reassembled packet.
+	 * @return true if the fragment completed a packet.
+	 */
+	public synchronized boolean add(OSCMessageView fragment, OSCReceiver receiver) {
+		if(!fragment.typeTagsEqual(TAGS)) {
+			dropped++;
+			return false;
+		}
+		int id = fragment.getInt(0);
+		int index = fragment.getInt(1);
+		int count = fragment.getInt(2);
+		int total = fragment.getInt(3);
+		int offset = fragment.getInt(4);
+		ByteBuffer buffer = fragment.getBuffer();
+		int blobOffset = fragment.getArgumentOffset(5);
+		int length = buffer.getInt(blobOffset);
+		//checked before a pending packet is taken, and without adding the offset and length, which a malformed fragment could overflow
+		if(total < 0 || total > maxPacketSize || count <= 0 || count > total || index < 0 || index >= count
+				|| offset < 0 || offset > total || length < 0 || length > total - offset) {
+			dropped++;
+			return false;
+		}
+
+		long now = System.nanoTime();
+		Pending p = null;
+		for(int i = 0;i < pending.length;i++) {
+			Pending candidate = pending[i];
+			if(candidate.isActive && now - candidate.started > timeout) {
+				candidate.isActive = false;
+				expired++;
+			}
+			if(candidate.isActive && candidate.id == id) p = candidate;
+		}
+		if(p == null) {
+			//a free buffer, or else the oldest incomplete packet's
+			for(int i = 0;i < pending.length;i++) {
+				Pending candidate = pending[i];
+				if(!candidate.isActive) {
+					p = candidate;
+					break;
+				}
+				if(p == null || candidate.started < p.started) p = candidate;
+			}
+			if(p.isActive) expired++;
+			p.isActive = true;
+			p.id = id;
+			p.count = count;
+			p.received = 0;
+			p.started = now;
+			if(p.got.length < count) p.got = new boolean[count];
+			for(int i = 0;i < count;i++) p.got[i] = false;
+			if(p.data.capacity() < total) p.data = ByteBuffer.allocate(total);
+			p.data.clear();
+			p.data.limit(total);
+		} else if(p.count != count || p.data.limit() != total) {
+			dropped++;
+			return false;
+		}
+
+		if(p.got[index]) return false;
+		for(int i = 0;i < length;i++) p.data.put(offset + i, buffer.get(blobOffset + 4 + i));
+		p.got[index] = true;
+		if(++p.received < count) return false;
+
+		p.isActive = false;
+		completed++;
+		receiver.receive(p.data, 0, total);
+		return true;
+	}
+
+	/**
+	 * Returns the number of packets reassembled since the reassembler was created.
+	 * @return the number of complete packets.
+	 */
+	public synchronized long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * Returns the number of packets dropped incomplete, because they timed out or too many packets were pending.
+	 * @return the number of expired packets.
+	 */
+	public synchronized long getExpired() {
+		return expired;
+	}
+
+	/**
+	 * Returns the number of fragments dropped because they were malformed or belonged to a packet too large.
+	 * @return the number of dropped fragments.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+}
@@ -0,0 +1,20 @@
+package datanetwork.javaosc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Receives the datagrams an {@link OSCTransport} reads.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public interface OSCReceiver {
+
+	/**
+	 * Accepts one received datagram.  The transport reuses the buffer for the next datagram as soon as this returns.
+	 * @param buffer the buffer holding the datagram.
+	 * @param offset the index of the first byte of the datagram.
+	 * @param length the length of the datagram in bytes.
+	 */
+	public void receive(ByteBuffer buffer, int offset, int length);
+
+}
@@ -0,0 +1,247 @@
+package datanetwork.javaosc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>A pre-allocated single-producer, single-consumer queue of datagrams, between the thread reading a socket and the thread dispatching its messages.</p>
+ * <p>Every slot is allocated up front.  The producer copies each datagram into the next free slot and publishes it; the consumer dispatches
+ * the oldest slot in place, straight from the queue's buffer.  Neither side takes a lock, so reading the socket never waits for a slow listener.
+ * When the queue is full the {@link Overflow} policy decides what happens to the new datagram.  Datagrams offered as not droppable,
+ * such as control messages among a stream of data, are never discarded: they wait for room, and the oldest datagram is only discarded
+ * to make room if it is droppable itself.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see OSCPortIn#setRingBuffer(OSCRingBuffer)
+ */
+
+public class OSCRingBuffer {
+
+	/**
+	 * What the producer does when the queue is full.
+	 */
+	public enum Overflow {
+		/** Discard the oldest queued datagram to make room.  If the consumer is still dispatching it, the new datagram is discarded instead. */
+		DROP_OLDEST,
+		/** Discard the new datagram. */
+		DROP_NEWEST,
+		/** Wait for the consumer to make room. */
+		BLOCK
+	}
+
+	protected final int capacity;
+	protected final int slotSize;
+	protected final Overflow overflow;
+	protected final ByteBuffer slots;
+	protected final int[] lengths;
+	protected final long[] times;	//when each slot was queued, in System.nanoTime()
+	protected final boolean[] droppable;	//whether each slot may be discarded to make room
+
+	// head is only written by the producer.  tail is written by the consumer, and by the producer when it drops the oldest datagram.
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long dispatching = -1;
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile Thread waitingConsumer;
+	// only written by the consumer
+	private volatile long dispatched, totalLatency, maxLatency;
+
+	/**
+	 * Allocates a queue.
+	 * @param capacity the number of datagrams the queue holds.
+	 * @param slotSize the size of the largest datagram, in bytes.  Larger datagrams are dropped.
+	 * @param overflow what to do when the queue is full.
+	 */
+	public OSCRingBuffer(int capacity, int slotSize, Overflow overflow) {
+		if(capacity < 1) throw new IllegalArgumentException("capacity must be at least 1, not " + capacity);
+		this.capacity = capacity;
+		this.slotSize = slotSize;
+		this.overflow = overflow;
+		// one more slot than the capacity, so the slot being dispatched is never written while the queue is full
+		slots = ByteBuffer.allocate((capacity + 1) * slotSize);
+		lengths = new int[capacity + 1];
+		times = new long[capacity + 1];
+		droppable = new boolean[capacity + 1];
+	}
+
+	/**
+	 * Producer side: copies a datagram into the queue.
+	 * @param src the buffer holding the datagram.
+	 * @param offset the index of the first byte of the datagram.
+	 * @param length the length of the datagram in bytes.
+	 * @return true if the datagram was queued, false if it was dropped.
+	 */
+	public boolean offer(ByteBuffer src, int offset, int length) {
+		return offer(src, offset, length, true);
+	}
+
+	/**
+	 * Producer side: copies a datagram into the queue.
+	 * @param src the buffer holding the datagram.
+	 * @param offset the index of the first byte of the datagram.
+	 * @param length the length of the datagram in bytes.
+	 * @param droppable false if the datagram must not be lost to the overflow policy: it then waits for room when the queue is full,
+	 * and is never discarded to make room for a later one.
+	 * @return true if the datagram was queued, false if it was dropped.
+	 */
+	public boolean offer(ByteBuffer src, int offset, int length, boolean droppable) {
+		if(length > slotSize) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		long h = head.get();
+		while(h - tail.get() >= capacity || isDispatching(h)) {
+			if(overflow == Overflow.DROP_OLDEST) {
+				long t = tail.get();
+				if(h - t >= capacity && !isDispatching(h) && this.droppable[(int) (t % (capacity + 1))]) {
+					if(tail.compareAndSet(t, t + 1)) dropped.incrementAndGet();
+					continue;
+				}
+			}
+			if(overflow != Overflow.BLOCK && droppable) {
+				dropped.incrementAndGet();
+				return false;
+			}
+			LockSupport.parkNanos(this, 100000);
+		}
+		int slot = (int) (h % (capacity + 1));
+		int base = slot * slotSize;
+		for(int i = 0;i < length;i++) slots.put(base + i, src.get(offset + i));
+		lengths[slot] = length;
+		times[slot] = System.nanoTime();
+		this.droppable[slot] = droppable;
+		head.set(h + 1);
+
+		Thread consumer = waitingConsumer;
+		if(consumer != null) LockSupport.unpark(consumer);
+		return true;
+	}
+
+	/**
+	 * Is the slot the producer would write to next still being dispatched by the consumer?
+	 */
+	private boolean isDispatching(long h) {
+		long d = dispatching;
+		return d >= 0 && h - d > capacity;
+	}
+
+	/**
+	 * Consumer side: hands the oldest datagram to the receiver, in place, then frees its slot.
+	 * @param receiver the receiver to dispatch to.
+	 * @return true if a datagram was dispatched, false if the queue was empty.
+	 */
+	public boolean poll(OSCReceiver receiver) {
+		long t;
+		do {
+			t = tail.get();
+			if(t >= head.get()) return false;
+			dispatching = t;
+		} while(!tail.compareAndSet(t, t + 1));
+		try {
+			int slot = (int) (t % (capacity + 1));
+			long latency = System.nanoTime() - times[slot];
+			dispatched++;
+			totalLatency += latency;
+			if(latency > maxLatency) maxLatency = latency;
+			receiver.receive(slots, slot * slotSize, lengths[slot]);
+		} finally {
+			dispatching = -1;
+		}
+		return true;
+	}
+
+	/**
+	 * Consumer side: waits until a datagram is queued or the timeout expires.
+	 * @param timeoutNanos the longest time to wait.
+	 */
+	public void await(long timeoutNanos) {
+		waitingConsumer = Thread.currentThread();
+		if(isEmpty()) LockSupport.parkNanos(this, timeoutNanos);
+		waitingConsumer = null;
+	}
+
+	/**
+	 * Returns true if no datagram is queued.
+	 * @return true if the queue is empty.
+	 */
+	public boolean isEmpty() {
+		return tail.get() >= head.get();
+	}
+
+	/**
+	 * Returns the number of datagrams currently queued.
+	 * @return the occupancy of the queue.
+	 */
+	public int size() {
+		long t = tail.get();
+		return (int) Math.max(0, head.get() - t);
+	}
+
+	/**
+	 * Returns the number of datagrams the queue holds.
+	 * @return the capacity.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the overflow policy.
+	 * @return the overflow policy.
+	 */
+	public Overflow getOverflow() {
+		return overflow;
+	}
+
+	/**
+	 * Returns the number of datagrams queued since the queue was created.
+	 * @return the number of queued datagrams.
+	 */
+	public long getQueued() {
+		return head.get();
+	}
+
+	/**
+	 * Returns the number of datagrams dropped since the queue was created, because the queue was full or they were too large.
+	 * @return the number of dropped datagrams.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the number of datagrams dispatched since the queue was created or its latency was reset.
+	 * @return the number of dispatched datagrams.
+	 */
+	public long getDispatched() {
+		return dispatched;
+	}
+
+	/**
+	 * Returns how long the datagrams dispatched since the last reset waited in the queue, on average.
+	 * @return the average time between queuing and dispatch, in nanoseconds.
+	 */
+	public long getAverageLatency() {
+		long n = dispatched;
+		return (n > 0) ? totalLatency / n : 0;
+	}
+
+	/**
+	 * Returns the longest a datagram dispatched since the last reset waited in the queue.
+	 * @return the longest time between queuing and dispatch, in nanoseconds.
+	 */
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * Starts measuring the latency again, for instance once per reporting period.
+	 * Only exact when called by the consumer or while it is idle, as the counters are not updated atomically together.
+	 */
+	public void resetLatency() {
+		dispatched = 0;
+		totalLatency = 0;
+		maxLatency = 0;
+	}
+}
@@ -0,0 +1,116 @@
+package datanetwork.javaosc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import datanetwork.javaosc.utility.OSCByteBufferEncoder;
+
+/**
+ * <p>A single I/O thread that serves every {@link OSCChannelTransport} and {@link OSCStreamTransport} registered with it.</p>
+ * <p>Several ports, or several DNConnections in one JVM, can share a selector instead of running one blocking thread each.
+ * Datagrams are read into one direct buffer owned by the selector and handed to each transport's receiver in place,
+ * so a receiver must not block: every other channel of the selector waits while it runs.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public class OSCSelector implements Runnable {
+
+	private static OSCSelector defaultSelector;
+
+	protected Selector selector;
+	protected Thread thread;
+	protected ByteBuffer buffer = ByteBuffer.allocateDirect(OSCByteBufferEncoder.MAX_DATAGRAM_SIZE);
+	private ConcurrentLinkedQueue<Handler> pending = new ConcurrentLinkedQueue<Handler>();
+	private volatile boolean isRunning;
+
+	/**
+	 * Opens a selector and starts its thread.
+	 */
+	public OSCSelector() throws IOException {
+		selector = Selector.open();
+		isRunning = true;
+		thread = new Thread(this, "OSCSelector");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the selector shared by the transports that were not given one, starting it on first use.
+	 * @return the shared selector.
+	 */
+	public static synchronized OSCSelector getDefault() throws IOException {
+		if(defaultSelector == null || !defaultSelector.isRunning) defaultSelector = new OSCSelector();
+		return defaultSelector;
+	}
+
+	/**
+	 * A channel served by the selector.  Not to be called directly: the selector calls it back on its own thread.
+	 */
+	public interface Handler {
+		/** Returns the non-blocking channel to select. */
+		public SelectableChannel getSelectableChannel();
+		/** Returns the operations, such as {@link SelectionKey#OP_READ}, the channel is currently waiting for. */
+		public int getInterestOps();
+		/** Handles the operations the channel is ready for.  The buffer is shared by every channel of the selector. */
+		public void ready(SelectionKey key, ByteBuffer buffer) throws IOException;
+	}
+
+	/**
+	 * Starts serving a channel, or updates the operations it waits for.  The channel must already be non-blocking.
+	 * @param handler the transport to serve.
+	 */
+	public void register(Handler handler) {
+		pending.add(handler);
+		selector.wakeup();
+	}
+
+	public void run() {
+		while(isRunning) {
+			try {
+				selector.select();
+				Handler handler;
+				while((handler = pending.poll()) != null) {
+					try {
+						handler.getSelectableChannel().register(selector, handler.getInterestOps(), handler);
+					} catch(ClosedChannelException e) {
+						//closed before it could be registered
+					}
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					handler = (Handler) key.attachment();
+					try {
+						if(key.isValid()) handler.ready(key, buffer);
+					} catch(Exception e) {
+						if(key.channel().isOpen()) System.err.println("\nSenseWorldDataNetwork OSCSelector error: could not receive on "+handler+": "+e);
+					}
+				}
+			} catch(ClosedSelectorException e) {
+				return;
+			} catch(IOException e) {
+				System.err.println("\nSenseWorldDataNetwork OSCSelector error: "+e);
+			}
+		}
+	}
+
+	/**
+	 * Stops the selector's thread.  The transports registered with it stop receiving but stay open.
+	 */
+	public void close() {
+		isRunning = false;
+		selector.wakeup();
+		try {
+			selector.close();
+		} catch(IOException e) {
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package datanetwork.javaosc;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Reads one port with several channels bound to it with SO_REUSEPORT, each read by a selector thread of its own.</p>
+ * <p>The system spreads the datagrams among the channels by their source address, so reading scales when several hosts send to the port;
+ * the datagrams of one source always arrive on the same channel and stay in order.
+ * Where SO_REUSEPORT is not available the transport falls back to a single channel.  The receiver is called from every reading thread
+ * at once, so it should hand the datagrams over to {@link OSCPortIn#setWorkers(int, int, OSCRingBuffer.Overflow, OSCPartitioner) workers}.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public class OSCShardedTransport implements OSCTransport {
+
+	protected OSCChannelTransport[] shards;
+	protected OSCSelector[] selectors;
+
+	/**
+	 * Binds up to <code>count</code> channels to the port.
+	 * @param port the local port, or 0 for any free port.
+	 * @param count the number of channels and reading threads.
+	 */
+	public OSCShardedTransport(int port, int count) throws IOException {
+		OSCSelector first = new OSCSelector();
+		OSCChannelTransport transport;
+		try {
+			transport = new OSCChannelTransport(port, first, count > 1);
+		} catch(IOException e) {
+			first.close();
+			throw e;
+		}
+		if(!transport.isReusePort()) count = 1;
+		shards = new OSCChannelTransport[count];
+		selectors = new OSCSelector[count];
+		shards[0] = transport;
+		selectors[0] = first;
+		try {
+			for(int i = 1;i < count;i++) {
+				selectors[i] = new OSCSelector();
+				shards[i] = new OSCChannelTransport(transport.getLocalPort(), selectors[i], true);
+			}
+		} catch(IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public void start(OSCReceiver receiver) throws IOException {
+		for(int i = 0;i < shards.length;i++) shards[i].start(receiver);
+	}
+
+	public void send(ByteBuffer packet, SocketAddress target) throws IOException {
+		shards[0].send(packet, target);
+	}
+
+	public int getLocalPort() {
+		return shards[0].getLocalPort();
+	}
+
+	/**
+	 * Returns the number of channels reading the port.
+	 * @return the number of shards.
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	public void close() {
+		for(int i = 0;i < shards.length;i++) {
+			if(shards[i] != null) shards[i].close();
+			if(selectors[i] != null) selectors[i].close();
+		}
+	}
+}
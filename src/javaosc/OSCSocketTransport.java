@@ -0,0 +1,108 @@
+package datanetwork.javaosc;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>A transport that receives on a blocking {@link java.net.DatagramSocket} with a thread of its own.</p>
+ * <p>This is how every OSCPortIn used to listen, and it remains the default.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see OSCChannelTransport
+ */
+
+public class OSCSocketTransport implements OSCTransport, Runnable {
+
+	protected DatagramSocket socket;
+	protected OSCReceiver receiver;
+	protected Thread thread;
+	private volatile boolean isListening;
+	private byte[] sendBuffer = new byte[0];
+	private volatile int maxPacketSize = 1536;
+
+	/**
+	 * Binds a socket to the port.
+	 * @param port the port to listen to, or 0 for any free port.
+	 */
+	public OSCSocketTransport(int port) throws SocketException {
+		this(new DatagramSocket(port));
+	}
+
+	/**
+	 * Wraps a bound socket, such as a {@link java.net.MulticastSocket}.
+	 * @param socket the socket to receive on.
+	 */
+	protected OSCSocketTransport(DatagramSocket socket) {
+		this.socket = socket;
+	}
+
+	public synchronized void start(OSCReceiver receiver) {
+		this.receiver = receiver;
+		isListening = true;
+		thread = new Thread(this);
+		thread.start();
+	}
+
+	/**
+	 * Sets the size of the largest datagram received.  The rest of a larger datagram is cut off by the socket.
+	 * @param maxPacketSize the size of the receive buffer, in bytes, 1536 by default.
+	 */
+	public void setMaxPacketSize(int maxPacketSize) {
+		this.maxPacketSize = maxPacketSize;
+	}
+
+	public void run() {
+		byte[] buffer = new byte[maxPacketSize];
+		ByteBuffer bytes = ByteBuffer.wrap(buffer);
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while(isListening) {
+			try {
+				if(buffer.length != maxPacketSize) {
+					buffer = new byte[maxPacketSize];
+					bytes = ByteBuffer.wrap(buffer);
+					packet = new DatagramPacket(buffer, buffer.length);
+				}
+				packet.setLength(buffer.length);
+				socket.receive(packet);
+				receiver.receive(bytes, 0, packet.getLength());
+			} catch(IOException e) {
+				//the socket throws once it is closed
+				if(isListening) System.err.println("\nSenseWorldDataNetwork OSCSocketTransport error: could not receive on port "+socket.getLocalPort()+": "+e);
+			}
+		}
+	}
+
+	/**
+	 * Sends a datagram.  Direct buffers are first copied to a reusable array, as the socket only sends from arrays.
+	 */
+	public synchronized void send(ByteBuffer packet, SocketAddress target) throws IOException {
+		int length = packet.remaining();
+		if(packet.hasArray()) {
+			socket.send(new DatagramPacket(packet.array(), packet.arrayOffset() + packet.position(), length, target));
+			packet.position(packet.limit());
+		} else {
+			if(sendBuffer.length < length) sendBuffer = new byte[length];
+			packet.get(sendBuffer, 0, length);
+			socket.send(new DatagramPacket(sendBuffer, 0, length, target));
+		}
+	}
+
+	public int getLocalPort() {
+		return socket.getLocalPort();
+	}
+
+	public void close() {
+		isListening = false;
+		if(thread != null) {
+			try {
+				thread.interrupt();
+			} catch(SecurityException e) {
+			}
+		}
+		socket.close();
+	}
+}
@@ -0,0 +1,299 @@
+package datanetwork.javaosc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * <p>A transport that carries OSC packets over a TCP connection, so packets are no longer limited by the size of a datagram.</p>
+ * <p>Packets are framed either with a 32 bit length prefix, as in OSC 1.0, or with SLIP, as in OSC 1.1.
+ * The connection is non-blocking and served by an {@link OSCSelector}.  Reads are buffered and parsed incrementally, a frame split
+ * across reads being kept until the rest arrives; each complete frame is handed to the receiver in place.
+ * Writes go through an output buffer: packets sent while the socket is busy are coalesced and written together once it can take them.</p>
+ * <p>Receivers run on the selector's thread and a slow one holds back the connection rather than losing packets,
+ * so a stream transport is best given a selector of its own.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public class OSCStreamTransport implements OSCTransport, OSCSelector.Handler {
+
+	/**
+	 * How packets are delimited on the stream.
+	 */
+	public enum Framing {
+		/** Each packet is preceded by its length as a 32 bit big endian int (OSC 1.0). */
+		LENGTH,
+		/** Each packet is SLIP encoded and ended by a SLIP END byte (OSC 1.1). */
+		SLIP
+	}
+
+	/** The largest frame read by default, in bytes. */
+	public static final int DEFAULT_MAX_FRAME_SIZE = 1 << 20;
+
+	private static final byte END = (byte) 0xC0, ESC = (byte) 0xDB, ESC_END = (byte) 0xDC, ESC_ESC = (byte) 0xDD;
+
+	protected SocketChannel channel;
+	protected Framing framing;
+	protected OSCSelector selector;
+	protected OSCReceiver receiver;
+	protected int maxFrameSize;
+
+	protected ByteBuffer input = ByteBuffer.allocate(4096);
+	protected ByteBuffer frame;		//SLIP frames are decoded here
+	protected ByteBuffer output = ByteBuffer.allocate(4096);
+	private long skip;				//bytes left of a frame too large to read
+	private boolean writePending;
+
+	/**
+	 * Connects to a server.
+	 * @param address the address of the server.
+	 * @param port the TCP port of the server.
+	 * @param framing how packets are delimited.
+	 * @param selector the selector serving the connection, or null for a selector of its own.
+	 */
+	public OSCStreamTransport(String address, int port, Framing framing, OSCSelector selector) throws IOException {
+		this(SocketChannel.open(new InetSocketAddress(address, port)), framing, selector);
+	}
+
+	/**
+	 * Wraps a connected channel, for instance one accepted by a server.
+	 * @param channel the connected channel.
+	 * @param framing how packets are delimited.
+	 * @param selector the selector serving the connection, or null for a selector of its own.
+	 */
+	public OSCStreamTransport(SocketChannel channel, Framing framing, OSCSelector selector) throws IOException {
+		this.channel = channel;
+		this.framing = framing;
+		this.selector = selector;
+		this.maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+		channel.socket().setTcpNoDelay(true);
+		if(framing == Framing.SLIP) frame = ByteBuffer.allocate(4096);
+	}
+
+	/**
+	 * Sets the size of the largest frame to read.  Larger frames are skipped.
+	 * @param maxFrameSize the largest frame in bytes.
+	 */
+	public void setMaxFrameSize(int maxFrameSize) {
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	public synchronized void start(OSCReceiver receiver) throws IOException {
+		this.receiver = receiver;
+		if(selector == null) selector = new OSCSelector();
+		channel.configureBlocking(false);
+		selector.register(this);
+	}
+
+	/**
+	 * Frames a packet and writes it, or queues it behind the bytes the socket has not taken yet.
+	 * The target is ignored: the packet goes to the other end of the connection.
+	 */
+	public synchronized void send(ByteBuffer packet, SocketAddress target) throws IOException {
+		frame(packet);
+		if(!writePending) write();
+	}
+
+	/**
+	 * Frames several packets and writes them together, or queues them behind the bytes the socket has not taken yet.
+	 * @param packets the packets back to back, from the position of the buffer.
+	 * @param lengths the length of each packet.
+	 * @param count the number of packets.
+	 */
+	public synchronized void send(ByteBuffer packets, int[] lengths, int count) throws IOException {
+		int limit = packets.limit();
+		for(int i = 0;i < count;i++) {
+			packets.limit(packets.position() + lengths[i]);
+			frame(packets);
+		}
+		packets.limit(limit);
+		if(!writePending) write();
+	}
+
+	/**
+	 * Appends a packet, framed, to the output buffer.
+	 */
+	private void frame(ByteBuffer packet) {
+		if(framing == Framing.LENGTH) {
+			ensureOutput(4 + packet.remaining());
+			output.putInt(packet.remaining());
+			output.put(packet);
+		} else {
+			ensureOutput(2 * packet.remaining() + 1);
+			while(packet.hasRemaining()) {
+				byte b = packet.get();
+				if(b == END) {
+					output.put(ESC);
+					output.put(ESC_END);
+				} else if(b == ESC) {
+					output.put(ESC);
+					output.put(ESC_ESC);
+				} else {
+					output.put(b);
+				}
+			}
+			output.put(END);
+		}
+	}
+
+	private void ensureOutput(int size) {
+		if(output.remaining() >= size) return;
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + size));
+		output.flip();
+		larger.put(output);
+		output = larger;
+	}
+
+	/**
+	 * Writes as much of the output buffer as the socket takes, and waits to be writable again if some is left.
+	 */
+	private void write() throws IOException {
+		output.flip();
+		if(channel.isBlocking()) {
+			while(output.hasRemaining()) channel.write(output);
+		} else {
+			channel.write(output);
+		}
+		output.compact();
+		boolean pending = output.position() > 0;
+		if(pending != writePending) {
+			writePending = pending;
+			if(selector != null && !channel.isBlocking()) selector.register(this);
+		}
+	}
+
+	public SelectableChannel getSelectableChannel() {
+		return channel;
+	}
+
+	public synchronized int getInterestOps() {
+		return writePending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+	}
+
+	/**
+	 * Writes the queued output and reads the available input.  Called by the selector's thread.
+	 */
+	public void ready(SelectionKey key, ByteBuffer buffer) throws IOException {
+		if(key.isWritable()) {
+			synchronized(this) {
+				write();
+			}
+		}
+		if(key.isReadable()) read();
+	}
+
+	private void read() throws IOException {
+		while(true) {
+			if(!input.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+				input.flip();
+				larger.put(input);
+				input = larger;
+			}
+			int count = channel.read(input);
+			if(count < 0) {
+				close();
+				return;
+			}
+			if(count == 0) return;
+			input.flip();
+			if(framing == Framing.LENGTH) parseLengthFrames();
+			else parseSlipFrames();
+			input.compact();
+		}
+	}
+
+	/**
+	 * Hands every complete length prefixed frame of the input to the receiver, leaving a partial frame in the input.
+	 */
+	private void parseLengthFrames() {
+		while(true) {
+			if(skip > 0) {
+				int n = (int) Math.min(skip, input.remaining());
+				input.position(input.position() + n);
+				skip -= n;
+				if(skip > 0) return;
+			}
+			if(input.remaining() < 4) return;
+			int length = input.getInt(input.position());
+			if(length < 0 || length > maxFrameSize) {
+				System.err.println("\nSenseWorldDataNetwork OSCStreamTransport error: skipped a frame of " + length + " bytes from " + this);
+				input.position(input.position() + 4);
+				skip = length & 0xFFFFFFFFL;
+				continue;
+			}
+			if(input.remaining() < 4 + length) {
+				if(input.capacity() < 4 + length) {
+					ByteBuffer larger = ByteBuffer.allocate(4 + length);
+					larger.put(input);
+					larger.flip();
+					input = larger;
+				}
+				return;
+			}
+			int start = input.position() + 4;
+			dispatch(input, start, length);
+			input.position(start + length);
+		}
+	}
+
+	/**
+	 * Decodes the SLIP input into the frame buffer, handing each frame to the receiver as its END arrives.
+	 * A frame split across reads stays in the frame buffer, and an escape split across reads stays in the input.
+	 */
+	private void parseSlipFrames() {
+		while(input.hasRemaining()) {
+			byte b = input.get();
+			if(b == END) {
+				if(skip == 0 && frame.position() > 0) dispatch(frame, 0, frame.position());
+				frame.clear();
+				skip = 0;
+				continue;
+			}
+			if(b == ESC) {
+				if(!input.hasRemaining()) {
+					input.position(input.position() - 1);
+					return;
+				}
+				byte escaped = input.get();
+				b = (escaped == ESC_END) ? END : (escaped == ESC_ESC) ? ESC : escaped;
+			}
+			if(skip > 0) continue;
+			if(frame.position() >= maxFrameSize) {
+				System.err.println("\nSenseWorldDataNetwork OSCStreamTransport error: skipped a frame larger than " + maxFrameSize + " bytes from " + this);
+				skip = 1;
+				continue;
+			}
+			if(!frame.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.min(frame.capacity() * 2, maxFrameSize));
+				frame.flip();
+				larger.put(frame);
+				frame = larger;
+			}
+			frame.put(b);
+		}
+	}
+
+	private void dispatch(ByteBuffer buffer, int offset, int length) {
+		if(receiver != null) receiver.receive(buffer, offset, length);
+	}
+
+	public int getLocalPort() {
+		return channel.socket().getLocalPort();
+	}
+
+	public void close() {
+		try {
+			channel.close();
+		} catch(IOException e) {
+		}
+	}
+
+	public String toString() {
+		return "TCP connection to " + channel.socket().getRemoteSocketAddress();
+	}
+}
@@ -0,0 +1,143 @@
+package datanetwork.javaosc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>A table of the OSC addresses a port expects, each with a small integer id chosen by its owner.</p>
+ * <p>The decoders resolve the address of every incoming message against the table, hashing its bytes in place.
+ * A known address is given its id and the table's canonical String, so nothing is allocated for it and listeners
+ * can route on the id instead of comparing strings.  Unknown addresses resolve to -1 and are decoded as before.</p>
+ * <p>Addresses are defined up front and rarely change, so the table is copied on write and can be read from the
+ * receiving thread without locking.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ *
+ * @see OSCMessage#getAddressId()
+ * @see OSCMessageView#getAddressId()
+ */
+
+public class OSCSymbolTable {
+
+	private static class Table {
+		final String[] addresses;
+		final byte[][] bytes;
+		final int[] hashes;
+		final int[] ids;
+		final String[] byId;
+
+		Table(int capacity, int idCapacity) {
+			addresses = new String[capacity];
+			bytes = new byte[capacity][];
+			hashes = new int[capacity];
+			ids = new int[capacity];
+			byId = new String[idCapacity];
+		}
+	}
+
+	private volatile Table table = new Table(16, 16);
+	private int size;
+
+	/**
+	 * Defines an address, or changes its id.
+	 * @param address the OSC address, made of ASCII characters.
+	 * @param id the id the address resolves to, a small positive int.
+	 */
+	public synchronized void define(String address, int id) {
+		if(id < 0) throw new IllegalArgumentException("negative id " + id + " for " + address);
+		Table t = table;
+		int capacity = t.addresses.length;
+		while(capacity < (size + 1) * 2) capacity *= 2;
+		int idCapacity = t.byId.length;
+		while(idCapacity <= id) idCapacity *= 2;
+		Table copy = new Table(capacity, idCapacity);
+		size = 0;
+		for(int i = 0;i < t.addresses.length;i++) {
+			if(t.addresses[i] != null && !t.addresses[i].equals(address)) insert(copy, t.addresses[i], t.ids[i]);
+		}
+		insert(copy, address, id);
+		table = copy;
+	}
+
+	/**
+	 * Returns the canonical String of an id.
+	 * @param id the id of an address.
+	 * @return the address, or null if no address has that id.
+	 */
+	public String getAddress(int id) {
+		String[] byId = table.byId;
+		return (id >= 0 && id < byId.length) ? byId[id] : null;
+	}
+
+	/**
+	 * Resolves an address.
+	 * @param address the address to resolve.
+	 * @return its id, or -1 if the address is not defined.
+	 */
+	public int lookup(String address) {
+		Table t = table;
+		int mask = t.addresses.length - 1;
+		int hash = address.hashCode();
+		for(int i = mix(hash) & mask;t.addresses[i] != null;i = (i + 1) & mask) {
+			if(t.hashes[i] == hash && t.addresses[i].equals(address)) return t.ids[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Resolves the address encoded in <code>length</code> bytes of an array, without copying them.
+	 * @return its id, or -1 if the address is not defined.
+	 */
+	public int lookup(byte[] src, int offset, int length) {
+		int hash = 0;
+		for(int i = 0;i < length;i++) hash = 31 * hash + (src[offset + i] & 0xFF);
+		Table t = table;
+		int mask = t.addresses.length - 1;
+		for(int i = mix(hash) & mask;t.addresses[i] != null;i = (i + 1) & mask) {
+			if(t.hashes[i] != hash || t.bytes[i].length != length) continue;
+			byte[] candidate = t.bytes[i];
+			int j = 0;
+			while(j < length && candidate[j] == src[offset + j]) j++;
+			if(j == length) return t.ids[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Resolves the address encoded in <code>length</code> bytes of a buffer, without copying them.
+	 * @return its id, or -1 if the address is not defined.
+	 */
+	public int lookup(ByteBuffer src, int offset, int length) {
+		int hash = 0;
+		for(int i = 0;i < length;i++) hash = 31 * hash + (src.get(offset + i) & 0xFF);
+		Table t = table;
+		int mask = t.addresses.length - 1;
+		for(int i = mix(hash) & mask;t.addresses[i] != null;i = (i + 1) & mask) {
+			if(t.hashes[i] != hash || t.bytes[i].length != length) continue;
+			byte[] candidate = t.bytes[i];
+			int j = 0;
+			while(j < length && candidate[j] == src.get(offset + j)) j++;
+			if(j == length) return t.ids[i];
+		}
+		return -1;
+	}
+
+	private void insert(Table t, String address, int id) {
+		// for ASCII the hash of the bytes is the String's own hash
+		int hash = address.hashCode();
+		int mask = t.addresses.length - 1;
+		int i = mix(hash) & mask;
+		while(t.addresses[i] != null) i = (i + 1) & mask;
+		byte[] encoded = new byte[address.length()];
+		for(int j = 0;j < encoded.length;j++) encoded[j] = (byte) (address.charAt(j) & 0x00FF);
+		t.addresses[i] = address.intern();
+		t.bytes[i] = encoded;
+		t.hashes[i] = hash;
+		t.ids[i] = id;
+		t.byId[id] = t.addresses[i];
+		size++;
+	}
+
+	private static int mix(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,40 @@
+package datanetwork.javaosc;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>The datagram endpoint an {@link OSCPortIn} receives from and an {@link OSCPortOut} sends through.</p>
+ * <p>{@link OSCSocketTransport} reads with a blocking socket on a thread of its own.  {@link OSCChannelTransport} is a non-blocking
+ * {@link java.nio.channels.DatagramChannel} served by an {@link OSCSelector}, so a single thread can read for many ports.</p>
+ * <p>Part of <a target="_blank" href="http://sensestage.hexagram.ca">Sense/Stage</a></p>
+ */
+
+public interface OSCTransport {
+
+	/**
+	 * Starts handing the datagrams received on the transport's port to the receiver.
+	 * @param receiver the receiver of the datagrams.
+	 */
+	public void start(OSCReceiver receiver) throws IOException;
+
+	/**
+	 * Sends the bytes between the position and the limit of <code>packet</code> as one datagram.
+	 * @param packet the encoded packet.
+	 * @param target the address and port to send to.
+	 */
+	public void send(ByteBuffer packet, SocketAddress target) throws IOException;
+
+	/**
+	 * Returns the local port the transport is bound to.
+	 * @return the local port.
+	 */
+	public int getLocalPort();
+
+	/**
+	 * Stops receiving and releases the socket.
+	 */
+	public void close();
+
+}
@@ -0,0 +1,20 @@
+package datanetwork.javaosc;
+
+/**
+ * <p>Listener for incoming messages that reads them through a recycled {@link OSCMessageView} instead of a new {@link OSCMessage}.</p>
+ * <p>The view is only valid for the duration of the call.  Listeners that need to keep the message must call {@link OSCMessageView#toMessage()}.</p>
+ *
+ * @see OSCPortIn#addViewListener(OSCViewListener)
+ */
+public interface OSCViewListener {
+
+	/**
+	 * Accepts an incoming message without materializing it.
+	 * A listener that fully handles the message returns true: it is then neither passed to the remaining view listeners
+	 * nor materialized for the {@link OSCListener}s and the oscEvent method.
+	 * @param view a view of the received message, recycled after this call returns.
+	 * @return true if the message has been consumed.
+	 */
+	public boolean acceptView(OSCMessageView view);
+
+}
@@ -22,6 +22,10 @@ public class OSCByteArrayToJavaConverter {
 	byte[] bytes;
 	int bytesLength;
 	int streamPosition;
+	int packetStart;
+	OSCSymbolTable symbols;
+
+	private static final byte[] BUNDLE_TAG = { '#', 'b', 'u', 'n', 'd', 'l', 'e', 0 };
 
 	/**
 	 * Create a helper object for converting from a byte array to an OSCPacket object.
@@ -30,14 +34,40 @@ public class OSCByteArrayToJavaConverter {
 		super();
 	}
 
+	/**
+	 * Create a converter that resolves addresses against a symbol table.
+	 * Known addresses are not rebuilt: messages get the table's canonical String and the address id.
+	 * @param symbols the table of known addresses.
+	 */
+	public OSCByteArrayToJavaConverter(OSCSymbolTable symbols) {
+		super();
+		this.symbols = symbols;
+	}
+
 	/**
 	 * Convert a byte array into an OSCPacket (either an OSCMessage or OSCBundle).
 	 * @return an OSCPacket
 	 */
 	public OSCPacket convert(byte[] byteArray, int bytesLength) {
+		return convert(byteArray, 0, bytesLength);
+	}
+
+	/**
+	 * Convert the <code>length</code> bytes of a byte array starting at <code>offset</code> into an OSCPacket (either an OSCMessage or OSCBundle).
+	 * @return an OSCPacket
+	 */
+	public OSCPacket convert(byte[] byteArray, int offset, int length) {
 		bytes = byteArray;
-		this.bytesLength = bytesLength;
-		streamPosition = 0;
+		streamPosition = offset;
+		bytesLength = offset + length;
+		return convertPacket();
+	}
+
+	/**
+	 * Convert the packet between the current position and <code>bytesLength</code>.
+	 */
+	private OSCPacket convertPacket() {
+		packetStart = streamPosition;
 		if (isBundle())
 			return convertBundle();
 		else
@@ -49,28 +79,37 @@ public class OSCByteArrayToJavaConverter {
 	 * @return true if it the byte array is a bundle, false o.w.
 	 */
 	private boolean isBundle() {
-			// only need the first 7 to check if it is a bundle
-		String bytesAsString = new String(bytes, 0, 7);
-		return bytesAsString.startsWith("#bundle");
+		if (bytesLength - streamPosition < BUNDLE_TAG.length)
+			return false;
+		for (int i = 0; i < BUNDLE_TAG.length; i++) {
+			if (bytes[streamPosition + i] != BUNDLE_TAG[i])
+				return false;
+		}
+		return true;
 	}
 
 	/**
 	 * Convert the byte array a bundle. Assumes that the byte array is a bundle.
+	 * Elements are converted in place, as windows over the same byte array.
 	 * @return a bundle containing the data specified in the byte stream
 	 */
 	private OSCBundle convertBundle() {
 		// skip the "#bundle " stuff
-		streamPosition = 8;
+		streamPosition += 8;
 		Date timestamp = readTimeTag();
 		OSCBundle bundle = new OSCBundle(timestamp);
-		OSCByteArrayToJavaConverter myConverter = new OSCByteArrayToJavaConverter();
-		while (streamPosition < bytesLength) {
+		int bundleEnd = bytesLength;
+		int bundleStart = packetStart;
+		while (streamPosition < bundleEnd) {
 			// recursively read through the stream and convert packets you find
-			int packetLength = ((Integer) readInteger()).intValue();
-			byte[] packetBytes = new byte[packetLength];
-			for (int i = 0; i < packetLength; i++)
-				packetBytes[i] = bytes[streamPosition++];
-			OSCPacket packet = myConverter.convert(packetBytes, packetLength);
+			int packetLength = readInt();
+			ensureAvailable(packetLength);
+			int elementEnd = streamPosition + packetLength;
+			bytesLength = elementEnd;
+			OSCPacket packet = convertPacket();
+			bytesLength = bundleEnd;
+			packetStart = bundleStart;
+			streamPosition = elementEnd;
 			bundle.addPacket(packet);
 		}
 		return bundle;
@@ -82,7 +121,7 @@ public class OSCByteArrayToJavaConverter {
 	 */
 	private OSCMessage convertMessage() {
 		OSCMessage message = new OSCMessage();
-		message.setAddress(readString());
+		readAddress(message);
 		char[] types = readTypes();
 		if (null == types) {
 			// we are done
@@ -97,11 +136,29 @@ public class OSCByteArrayToJavaConverter {
 				while (']' != types[i])
 					i++;
 			} else
-				message.addArgument(readArgument(types[i]));
+				readArgument(message, types[i]);
 		}
 		return message;
 	}
 
+	/**
+	 * Read the address of a message, resolving it against the symbol table first.
+	 * @param message the message to set the address of
+	 */
+	private void readAddress(OSCMessage message) {
+		if (null != symbols) {
+			int strLen = lengthOfCurrentString();
+			int id = symbols.lookup(bytes, streamPosition, strLen);
+			if (id >= 0) {
+				streamPosition += strLen;
+				moveToFourByteBoundry();
+				message.setAddress(symbols.getAddress(id), id);
+				return;
+			}
+		}
+		message.setAddress(readString());
+	}
+
 	/**
 	 * Read a string from the byte stream.
 	 * @return the next string in the byte stream
@@ -110,7 +167,7 @@ public class OSCByteArrayToJavaConverter {
 		int strLen = lengthOfCurrentString();
 		char[] stringChars = new char[strLen];
 		for (int i = 0; i < strLen; i++)
-			stringChars[i] = (char) bytes[streamPosition++];
+			stringChars[i] = (char) (bytes[streamPosition++] & 0xFF);
 		moveToFourByteBoundry();
 		return new String(stringChars);
 	}
@@ -121,7 +178,7 @@ public class OSCByteArrayToJavaConverter {
 	 */
 	private char[] readTypes() {
 		// the next byte should be a ","
-		if (bytes[streamPosition] != 0x2C)
+		if (streamPosition >= bytesLength || bytes[streamPosition] != 0x2C)
 			return null;
 		streamPosition++;
 		// find out how long the list of types is
@@ -138,6 +195,45 @@ public class OSCByteArrayToJavaConverter {
 		return typesChars;
 	}
 
+	/**
+	 * Read an argument of the type specified by the type char straight into the message, without boxing numbers.
+	 * @param message the message to add the argument to
+	 * @param c type of argument to read
+	 */
+	private void readArgument(OSCMessage message, char c) {
+		switch (c) {
+			case 'i' :
+				message.addInt(readInt());
+				return;
+			case 'f' :
+				message.addFloat(Float.intBitsToFloat(readInt()));
+				return;
+			case 's' :
+			case 'S' :
+				message.addString(readString());
+				return;
+			case 'h' :
+				message.addLong(readLong());
+				return;
+			case 'd' :
+				message.addDouble(Double.longBitsToDouble(readLong()));
+				return;
+			case 't' :
+				message.addTimeTag(readLong());
+				return;
+			case 'b' :
+				message.addBlob(readBlob());
+				return;
+			case 'N' :
+				message.addNil();
+				return;
+			case 'I' :
+				message.addInfinitum();
+				return;
+		}
+		message.addArgument(readArgument(c));
+	}
+
 	/**
 	 * Read an object of the type specified by the type char.
 	 * @param c type of argument to read
@@ -146,90 +242,71 @@ public class OSCByteArrayToJavaConverter {
 	private Object readArgument(char c) {
 		switch (c) {
 			case 'i' :
-				return readInteger();
+				return Integer.valueOf(readInt());
 			case 'h' :
-				return readBigInteger();
+				return BigInteger.valueOf(readLong());
 			case 'f' :
-				return readFloat();
+				return Float.valueOf(Float.intBitsToFloat(readInt()));
 			case 'd' :
-				return readDouble();
+				return Double.valueOf(Double.longBitsToDouble(readLong()));
 			case 's' :
+			case 'S' :
 				return readString();
 			case 'c' :
-				return readChar();
+				return Character.valueOf((char) readInt());
+			case 't' :
+				return OSCBundle.timeTagToDate(readLong());
+			case 'b' :
+				return readBlob();
 			case 'T' :
 				return Boolean.TRUE;
 			case 'F' :
 				return Boolean.FALSE;
+			case 'N' :
+				return null;
+			case 'I' :
+				return Float.valueOf(Float.POSITIVE_INFINITY);
 		}
-
-		return null;
-	}
-
-	/**
-	 * Read a char from the byte stream.
-	 * @return a Character
-	 */
-	private Object readChar() {
-		return new Character((char) bytes[streamPosition++]);
-	}
-
-	/**
-	 * Read a double &mdash; this just read a float.
-	 * @return a Double
-	 */
-	private Object readDouble() {
-		return readFloat();
+		throw new IllegalArgumentException("unknown OSC type tag '" + c + "' at byte " + streamPosition);
 	}
 
 	/**
-	 * Read a float from the byte stream.
-	 * @return a Float
+	 * Read a big endian 32 bit int from the byte stream.
+	 * @return an int
 	 */
-	private Object readFloat() {
-		byte[] floatBytes = new byte[4];
-		floatBytes[0] = bytes[streamPosition++];
-		floatBytes[1] = bytes[streamPosition++];
-		floatBytes[2] = bytes[streamPosition++];
-		floatBytes[3] = bytes[streamPosition++];
-//		int floatBits =
-//			(floatBytes[0] << 24)
-//				| (floatBytes[1] << 16)
-//				| (floatBytes[2] << 8)
-//				| (floatBytes[3]);
-		BigInteger floatBits = new BigInteger(floatBytes);
-		return new Float(Float.intBitsToFloat(floatBits.intValue()));
+	private int readInt() {
+		ensureAvailable(4);
+		int value = ((bytes[streamPosition] & 0xFF) << 24)
+			| ((bytes[streamPosition + 1] & 0xFF) << 16)
+			| ((bytes[streamPosition + 2] & 0xFF) << 8)
+			| (bytes[streamPosition + 3] & 0xFF);
+		streamPosition += 4;
+		return value;
 	}
 
 	/**
-	 * Read a Big Integer (64 bit int) from the byte stream.
-	 * @return a BigInteger
+	 * Read a big endian 64 bit int from the byte stream.
+	 * @return a long
 	 */
-	private Object readBigInteger() {
-		byte[] longintBytes = new byte[8];
-		longintBytes[0] = bytes[streamPosition++];
-		longintBytes[1] = bytes[streamPosition++];
-		longintBytes[2] = bytes[streamPosition++];
-		longintBytes[3] = bytes[streamPosition++];
-		longintBytes[4] = bytes[streamPosition++];
-		longintBytes[5] = bytes[streamPosition++];
-		longintBytes[6] = bytes[streamPosition++];
-		longintBytes[7] = bytes[streamPosition++];
-		return new BigInteger(longintBytes);
+	private long readLong() {
+		long high = readInt();
+		long low = readInt();
+		return (high << 32) | (low & 0xFFFFFFFFL);
 	}
 
 	/**
-	 * Read an Integer (32 bit int) from the byte stream.
-	 * @return an Integer
+	 * Read a blob: a 32 bit size followed by that many bytes, padded to a 4 byte boundary.
+	 * @return the blob's bytes
 	 */
-	private Object readInteger() {
-		byte[] intBytes = new byte[4];
-		intBytes[0] = bytes[streamPosition++];
-		intBytes[1] = bytes[streamPosition++];
-		intBytes[2] = bytes[streamPosition++];
-		intBytes[3] = bytes[streamPosition++];
-		BigInteger intBits = new BigInteger(intBytes);
-		return new Integer(intBits.intValue());
+	private byte[] readBlob() {
+		int blobLen = readInt();
+		if (blobLen < 0)
+			throw new IllegalArgumentException("negative OSC blob size " + blobLen);
+		ensureAvailable(blobLen);
+		byte[] blob = new byte[blobLen];
+		System.arraycopy(bytes, streamPosition, blob, 0, blobLen);
+		streamPosition += (blobLen + 3) & ~3;
+		return blob;
 	}
 	
 	/**
@@ -239,43 +316,7 @@ public class OSCByteArrayToJavaConverter {
 	 * @return a Date
 	 */
 	private Date readTimeTag() {
-		byte[] secondBytes = new byte[8];
-		byte[] fractionBytes = new byte[8];
-		for (int i = 0; i < 4; i++) {
-			// clear the higher order 4 bytes
-			secondBytes[i] = 0; fractionBytes[i] = 0;
-		}
-			// while reading in the seconds & fraction, check if
-			// this timetag has immediate semantics
-		boolean isImmediate = true;		
-		for (int i = 4; i < 8; i++) {
-			secondBytes[i] = bytes[streamPosition++];
-			if (secondBytes[i] > 0)
-				isImmediate = false;
-		}
-		for (int i = 4; i < 8; i++) {
-			fractionBytes[i] = bytes[streamPosition++];
-			if (i < 7) {
-				if (fractionBytes[i] > 0)
-					isImmediate = false;
-			} else {
-				if (fractionBytes[i] > 1)
-					isImmediate = false;
-			}
-		}
-		
-		if (isImmediate) return new Date(System.currentTimeMillis());
-
-		BigInteger secsSince1900 = new BigInteger(secondBytes);		
-		long secsSince1970 =  secsSince1900.longValue() - OSCBundle.SECONDS_FROM_1900_to_1970.longValue();
-		if (secsSince1970 < 0) secsSince1970 = 0; // no point maintaining times in the distant past
-		long fraction = (new BigInteger(fractionBytes).longValue());	
-			// the next line was cribbed from jakarta commons-net's NTP TimeStamp code
-		fraction = (fraction * 1000) / 0x100000000L;
-			// I don't where, but I'm losing 1ms somewhere...
-		fraction = (fraction > 0) ? fraction + 1 : 0;
-		long millisecs = (secsSince1970 * 1000) + fraction;
-		return new Date(millisecs);
+		return OSCBundle.timeTagToDate(readLong());
 	}
 
 	/**
@@ -295,13 +336,24 @@ public class OSCByteArrayToJavaConverter {
 		return array;
 	}
 
+	/**
+	 * Make sure the next <code>n</code> bytes are part of the packet.
+	 */
+	private void ensureAvailable(int n) {
+		if (streamPosition + n > bytesLength)
+			throw new IllegalArgumentException("truncated OSC packet: needed " + n + " bytes at byte " + streamPosition + " of " + bytesLength);
+	}
+
 	/**
 	 * Get the length of the string currently in the byte stream.
 	 */
 	private int lengthOfCurrentString() {
 		int i = 0;
-		while (bytes[streamPosition + i] != 0)
+		ensureAvailable(1);
+		while (bytes[streamPosition + i] != 0) {
 			i++;
+			ensureAvailable(i + 1);
+		}
 		return i;
 	}
 
@@ -310,7 +362,7 @@ public class OSCByteArrayToJavaConverter {
 	 */	
 	private void moveToFourByteBoundry() {
 		// If i'm already at a 4 byte boundry, I need to move to the next one
-		int mod = streamPosition % 4;
+		int mod = (streamPosition - packetStart) % 4;
 		streamPosition += (4 - mod);
 	}
 }
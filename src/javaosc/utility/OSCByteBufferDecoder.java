@@ -0,0 +1,70 @@
+package datanetwork.javaosc.utility;
+
+import java.nio.ByteBuffer;
+
+import datanetwork.javaosc.*;
+
+/**
+ * Decodes OSC packets straight from a {@link java.nio.ByteBuffer} into a single recycled {@link OSCMessageView}.
+ * <p>
+ * Unlike {@link OSCByteArrayToJavaConverter}, decoding a message allocates nothing: the decoder hands out the same view
+ * for every packet and the view only indexes the bytes in place.
+ * A decoder is not thread safe; each receiving thread should own one.
+ *
+ * @see OSCMessageView
+ */
+public class OSCByteBufferDecoder {
+
+	private static final byte[] BUNDLE_TAG = { '#', 'b', 'u', 'n', 'd', 'l', 'e', 0 };
+
+	protected OSCMessageView view = new OSCMessageView();
+	protected OSCBundleCursor cursor = new OSCBundleCursor();
+
+	/**
+	 * Create a decoder with its own recyclable view.
+	 */
+	public OSCByteBufferDecoder() {
+		super();
+	}
+
+	/**
+	 * Create a decoder whose view resolves addresses against a symbol table.
+	 * @param symbols the table of known addresses.
+	 */
+	public OSCByteBufferDecoder(OSCSymbolTable symbols) {
+		super();
+		view.setSymbolTable(symbols);
+	}
+
+	/**
+	 * Does the packet between <code>offset</code> and <code>offset + length</code> start with the "#bundle" tag?
+	 * @return true if the bytes are a bundle.
+	 */
+	public static boolean isBundle(ByteBuffer buffer, int offset, int length) {
+		if(length < BUNDLE_TAG.length) return false;
+		for(int i = 0;i < BUNDLE_TAG.length;i++) {
+			if(buffer.get(offset + i) != BUNDLE_TAG[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Wraps the decoder's bundle cursor around the bundle between <code>offset</code> and <code>offset + length</code>.
+	 * The elements are then walked in place, without copying them.
+	 * @return the recycled cursor, positioned before the first element, or null if the bytes are not a bundle.
+	 */
+	public OSCBundleCursor decodeBundle(ByteBuffer buffer, int offset, int length) {
+		if(!cursor.wrap(buffer, offset, length)) return null;
+		return cursor;
+	}
+
+	/**
+	 * Wraps the decoder's view around the message between <code>offset</code> and <code>offset + length</code>.
+	 * @return the recycled view, or null if the bytes are a bundle or a message the view cannot index.
+	 */
+	public OSCMessageView decodeMessage(ByteBuffer buffer, int offset, int length) {
+		if(isBundle(buffer, offset, length)) return null;
+		if(!view.wrap(buffer, offset, length)) return null;
+		return view;
+	}
+}
@@ -0,0 +1,227 @@
+package datanetwork.javaosc.utility;
+
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import datanetwork.javaosc.*;
+
+/**
+ * OSCByteBufferEncoder writes OSC packets straight into a {@link java.nio.ByteBuffer}.
+ * <p>
+ * It is the buffer counterpart of {@link OSCJavaToByteArrayConverter}: packets drive it through
+ * {@link OSCPacket#writeTo(OSCByteBufferEncoder)}, but nothing is staged in intermediate arrays.
+ * Bundle elements are written in place and their sizes back-patched once they are known.
+ * <p>
+ * An encoder either owns a pooled direct buffer, which it reuses for every packet and grows when a packet does not fit,
+ * or writes into a buffer supplied by the caller.  It is not thread safe.
+ */
+public class OSCByteBufferEncoder {
+
+	/** The largest payload a UDP datagram can carry. */
+	public static final int MAX_DATAGRAM_SIZE = 65507;
+
+	protected ByteBuffer buffer;
+	protected int start;
+	private boolean ownsBuffer;
+
+	/**
+	 * Create an encoder that owns a reusable direct buffer of the given initial capacity.
+	 * @param capacity the initial size of the buffer in bytes.
+	 */
+	public OSCByteBufferEncoder(int capacity) {
+		this(ByteBuffer.allocateDirect(capacity));
+		ownsBuffer = true;
+	}
+
+	/**
+	 * Create an encoder that writes into the caller's buffer.  The buffer is never replaced, so packets that do not fit
+	 * throw a {@link java.nio.BufferOverflowException}.
+	 * @param buffer the buffer to encode into.
+	 */
+	public OSCByteBufferEncoder(ByteBuffer buffer) {
+		super();
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Returns the buffer the encoder currently writes into.
+	 * @return the encoder's buffer.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Encode a packet at the start of the encoder's buffer.
+	 * @param packet the message or bundle to encode.
+	 * @return the buffer, flipped so that it holds exactly the encoded packet.
+	 */
+	public ByteBuffer encode(OSCPacket packet) {
+		while(true) {
+			buffer.clear();
+			try {
+				start = 0;
+				packet.writeTo(this);
+				buffer.flip();
+				return buffer;
+			} catch(BufferOverflowException e) {
+				if(!ownsBuffer || buffer.capacity() >= MAX_DATAGRAM_SIZE) throw e;
+				buffer = ByteBuffer.allocateDirect(Math.min(buffer.capacity() * 2, MAX_DATAGRAM_SIZE));
+			}
+		}
+	}
+
+	/**
+	 * Encode a packet into <code>dst</code>, starting at its current position.
+	 * On return the position of <code>dst</code> is just after the encoded packet.
+	 * @param packet the message or bundle to encode.
+	 * @param dst the buffer to encode into.
+	 * @return the number of bytes written.
+	 */
+	public int encode(OSCPacket packet, ByteBuffer dst) {
+		ByteBuffer previous = buffer;
+		int previousStart = start;
+		buffer = dst;
+		start = dst.position();
+		try {
+			packet.writeTo(this);
+			return dst.position() - start;
+		} finally {
+			buffer = previous;
+			start = previousStart;
+		}
+	}
+
+	/**
+	 * Reserve the size field of a bundle element.
+	 * @return the position of the size field, to be passed to {@link #endBundleElement(int)}.
+	 */
+	public int beginBundleElement() {
+		int sizePosition = buffer.position();
+		buffer.putInt(0);
+		return sizePosition;
+	}
+
+	/**
+	 * Back-patch the size of the bundle element whose size field is at <code>sizePosition</code>.
+	 * @param sizePosition the value returned by {@link #beginBundleElement()}.
+	 */
+	public void endBundleElement(int sizePosition) {
+		buffer.putInt(sizePosition, buffer.position() - sizePosition - 4);
+	}
+
+	/**
+	 * Pad the buffer with nulls to the next 4 byte boundary.  Always writes at least one null.
+	 */
+	public void appendNullCharToAlignStream() {
+		int pad = 4 - ((buffer.position() - start) % 4);
+		for (int i = 0; i < pad; i++)
+			buffer.put((byte) 0);
+	}
+
+	/**
+	 * Write a 32 bit int into the buffer.
+	 * @param i int
+	 */
+	public void write(int i) {
+		buffer.putInt(i);
+	}
+
+	/**
+	 * Write a 64 bit int into the buffer.
+	 * @param l long
+	 */
+	public void write(long l) {
+		buffer.putLong(l);
+	}
+
+	/**
+	 * Write a float into the buffer.
+	 * @param f float
+	 */
+	public void write(float f) {
+		buffer.putInt(Float.floatToRawIntBits(f));
+	}
+
+	/**
+	 * Write a blob into the buffer: its size as a 32 bit int, then its bytes padded with nulls to a 4 byte boundary.
+	 * @param blob byte[]
+	 */
+	public void writeBlob(byte[] blob) {
+		buffer.putInt(blob.length);
+		buffer.put(blob);
+		int mod = blob.length % 4;
+		for (int i = 0; mod != 0 && i < 4 - mod; i++)
+			buffer.put((byte) 0);
+	}
+
+	/**
+	 * Write a string and its null padding into the buffer.
+	 * @param aString java.lang.String
+	 */
+	public void write(String aString) {
+		int stringLength = aString.length();
+		for (int i = 0; i < stringLength; i++)
+			buffer.put((byte) (aString.charAt(i) & 0x00FF));
+		appendNullCharToAlignStream();
+	}
+
+	/**
+	 * Write a single byte, such as a type tag, into the buffer.
+	 * @param c char
+	 */
+	public void write(char c) {
+		buffer.put((byte) c);
+	}
+
+	/**
+	 * Write an object into the buffer.
+	 * @param anObject one of Float, Double, String, Integer, Long, BigInteger, Character, Date, byte[], or array of these.
+	 */
+	public void write(Object anObject) {
+		if (anObject instanceof Object[]) {
+			Object[] theArray = (Object[]) anObject;
+			for(int i = 0; i < theArray.length; ++i) {
+				write(theArray[i]);
+			}
+		} else if (anObject instanceof Float) {
+			write(((Float) anObject).floatValue());
+		} else if (anObject instanceof Double) {
+			write(Double.doubleToRawLongBits(((Double) anObject).doubleValue()));
+		} else if (anObject instanceof String) {
+			write((String) anObject);
+		} else if (anObject instanceof Integer) {
+			write(((Integer) anObject).intValue());
+		} else if (anObject instanceof Character) {
+			write((int) ((Character) anObject).charValue());
+		} else if (anObject instanceof Long || anObject instanceof BigInteger) {
+			write(((Number) anObject).longValue());
+		} else if (anObject instanceof Date) {
+			write(OSCBundle.dateToTimeTag((Date) anObject));
+		} else if (anObject instanceof byte[]) {
+			writeBlob((byte[]) anObject);
+		}
+	}
+
+	/**
+	 * Write the type tags for an array element in the arguments.
+	 * @param array java.lang.Object[]
+	 */
+	public void writeTypesArray(Object[] array) {
+		for (int i = 0; i < array.length; i++) {
+			Object o = array[i];
+			if (Boolean.TRUE.equals(o)) write('T');
+			else if (Boolean.FALSE.equals(o)) write('F');
+			else if (o instanceof Integer) write('i');
+			else if (o instanceof Long || o instanceof BigInteger) write('h');
+			else if (o instanceof Float) write('f');
+			else if (o instanceof Double) write('d');
+			else if (o instanceof String) write('s');
+			else if (o instanceof Character) write('c');
+			else if (o instanceof Date) write('t');
+			else if (o instanceof byte[]) write('b');
+		}
+	}
+}
@@ -3,6 +3,7 @@ package datanetwork.javaosc.utility;
 import java.io.IOException;
 import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.Vector;
 import java.nio.*;
@@ -100,7 +101,35 @@ public class OSCJavaToByteArrayConverter {
 	 * @param f java.lang.Float
 	 */
 	public void write(Float f) {
-		writeInteger32ToByteArray(Float.floatToIntBits(f.floatValue()));
+		write(f.floatValue());
+	}
+
+	/**
+	 * Write a float into the byte stream.
+	 * @param f float
+	 */
+	public void write(float f) {
+		writeInteger32ToByteArray(Float.floatToRawIntBits(f));
+	}
+
+	/**
+	 * Write a 64 bit double into the byte stream.
+	 * @param d double
+	 */
+	public void write(double d) {
+		writeInteger64ToByteArray(Double.doubleToRawLongBits(d));
+	}
+
+	/**
+	 * Write a blob into the byte stream: its size as a 32 bit int, then its bytes padded with nulls to a 4 byte boundary.
+	 * @param blob byte[]
+	 */
+	public void writeBlob(byte[] blob) {
+		writeInteger32ToByteArray(blob.length);
+		stream.write(blob, 0, blob.length);
+		int mod = blob.length % 4;
+		for (int i = 0; mod != 0 && i < 4 - mod; i++)
+			stream.write(0);
 	}
 
 	/**
@@ -110,6 +139,14 @@ public class OSCJavaToByteArrayConverter {
 		writeInteger32ToByteArray(i.intValue());
 	}
 	
+	/**
+	 * Write a 64 bit integer into the byte stream.
+	 * @param l long
+	 */
+	public void write(long l) {
+		writeInteger64ToByteArray(l);
+	}
+
 	/**
 	 * @param i java.lang.Integer
 	 */
@@ -149,7 +186,7 @@ public class OSCJavaToByteArrayConverter {
 
 	/**
 	 * Write an object into the byte stream.
-	 * @param anObject one of Float, String, Integer, BigInteger, or array of these.
+	 * @param anObject one of Float, Double, String, Integer, Long, BigInteger, Character, Date, byte[], or array of these.
 	 */
 	public void write(Object anObject) {
 		// Can't do switch on class
@@ -178,6 +215,26 @@ public class OSCJavaToByteArrayConverter {
 			write((BigInteger) anObject);
 			return;
 		}		
+		if (anObject instanceof Long) {
+			write(((Long) anObject).longValue());
+			return;
+		}
+		if (anObject instanceof Double) {
+			write(((Double) anObject).doubleValue());
+			return;
+		}
+		if (anObject instanceof Character) {
+			write((int) ((Character) anObject).charValue());
+			return;
+		}
+		if (anObject instanceof Date) {
+			write(datanetwork.javaosc.OSCBundle.dateToTimeTag((Date) anObject));
+			return;
+		}
+		if (anObject instanceof byte[]) {
+			writeBlob((byte[]) anObject);
+			return;
+		}
 	}
 
 	/**
@@ -195,10 +252,18 @@ public class OSCJavaToByteArrayConverter {
 			stream.write('i');
 			return;
 		}
-		if (java.math.BigInteger.class.equals(c)) {
+		if (java.math.BigInteger.class.equals(c) || Long.class.equals(c)) {
 			stream.write('h');
 			return;
 		}
+		if (Date.class.equals(c)) {
+			stream.write('t');
+			return;
+		}
+		if (byte[].class.equals(c)) {
+			stream.write('b');
+			return;
+		}
 		if (Float.class.equals(c)) {
 			stream.write('f');
 			return;